@@ -0,0 +1,119 @@
+package com.message.tree.backend.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.message.tree.backend.config.JacksonConfig;
+import com.message.tree.backend.dto.MessageDto;
+import com.message.tree.backend.entity.Message;
+import com.message.tree.backend.repository.MessageRepository;
+import com.message.tree.backend.repository.MessageRow;
+import com.message.tree.backend.service.MessageJsonFragments;
+import com.message.tree.backend.service.MessageService;
+import com.message.tree.backend.service.MessageTreeIndex;
+import com.message.tree.backend.service.RequestCoalescer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot paths behind the read endpoints, per tree shape and size. Run with {@code gradle jmh}.
+ * <ul>
+ *     <li>{@code rebuildIndex}: loading and ordering the forest, which replaced per-request sorting</li>
+ *     <li>{@code tree}: {@code MessageService.getAllMessagesWithTree}</li>
+ *     <li>{@code topLevelAndChildren}: flat DTO mapping for the list and children endpoints</li>
+ *     <li>{@code serializeTree}: Jackson serialization of a built tree</li>
+ *     <li>{@code treeJson}: splicing the JSON tree from pre-rendered fragments, what replaced
+ *     building and serializing it for JSON clients; the first call renders them</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MessageTreeBenchmark {
+
+    @Param({"WIDE", "DEEP", "BALANCED"})
+    private TreeShape shape;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    private int size;
+
+    private MessageTreeIndex index;
+    private MessageService messageService;
+    private ObjectMapper objectMapper;
+    private List<MessageDto> tree;
+    private long widestParentId;
+
+    @Setup
+    public void setUp() {
+        List<Message> messages = shape.generate(size);
+        // No reply lists cached, topLevelAndChildren measures building them
+        index = new MessageTreeIndex(repositoryReturning(messages), new SimpleMeterRegistry(),
+                0, Duration.ofMinutes(10));
+        index.rebuild();
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        JacksonConfig.allowDeepNesting(objectMapper);
+        messageService = new MessageService(null, index, event -> {
+        }, null, new RequestCoalescer(Set.of(), new SimpleMeterRegistry()), new MessageJsonFragments(objectMapper));
+        tree = messageService.getAllMessagesWithTree();
+
+        Message widest = messages.get(0);
+        for (Message message : messages) {
+            if (message.getReplyCount() > widest.getReplyCount()) {
+                widest = message;
+            }
+        }
+        widestParentId = widest.getId();
+    }
+
+    @Benchmark
+    public int rebuildIndex() {
+        return index.rebuild();
+    }
+
+    @Benchmark
+    public List<MessageDto> tree() {
+        return messageService.getAllMessagesWithTree();
+    }
+
+    @Benchmark
+    public void topLevelAndChildren(Blackhole blackhole) {
+        blackhole.consume(messageService.getAllTopLevelMessages());
+        blackhole.consume(messageService.getChildrenByParentId(widestParentId));
+    }
+
+    @Benchmark
+    public byte[] serializeTree() throws Exception {
+        return objectMapper.writeValueAsBytes(tree);
+    }
+
+    @Benchmark
+    public long treeJson() {
+        long length = 0;
+        for (byte[] thread : messageService.getPrerenderedTree().threads()) {
+            length += thread.length;
+        }
+        return length;
+    }
+
+    /**
+     * Only {@code findAllRows} is needed to load the index
+     */
+    private static MessageRepository repositoryReturning(List<Message> messages) {
+        List<MessageRow> rows = messages.stream().map(MessageRow::of).toList();
+        return (MessageRepository) Proxy.newProxyInstance(
+                MessageRepository.class.getClassLoader(),
+                new Class<?>[]{MessageRepository.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("findAllRows")) {
+                        return rows;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,88 @@
+package com.message.tree.backend.benchmark;
+
+import com.message.tree.backend.entity.Message;
+import com.message.tree.backend.entity.User;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Synthetic forests in the order {@code MessageRepository.findAllRows} returns rows:
+ * oldest first, with the counters {@code MessageService.createMessage} maintains. Paths are
+ * left out: the index does not read them, and a million-deep chain of paths would be quadratic.
+ */
+public enum TreeShape {
+    /**
+     * One thread whose replies all answer the root
+     */
+    WIDE {
+        @Override
+        int parentOf(int index) {
+            return 0;
+        }
+    },
+    /**
+     * One thread where every reply answers the previous one
+     */
+    DEEP {
+        @Override
+        int parentOf(int index) {
+            return index - 1;
+        }
+    },
+    /**
+     * One thread shaped as a complete tree with ten replies per message
+     */
+    BALANCED {
+        @Override
+        int parentOf(int index) {
+            return (index - 1) / 10;
+        }
+    };
+
+    private static final LocalDateTime START = LocalDateTime.of(2025, 1, 1, 0, 0);
+    private static final int USERS = 100;
+
+    /**
+     * Index of the parent of message {@code index}, always lower than {@code index}
+     */
+    abstract int parentOf(int index);
+
+    public List<Message> generate(int size) {
+        List<User> users = new ArrayList<>(USERS);
+        for (int i = 0; i < USERS; i++) {
+            User user = new User();
+            user.setId((long) i + 1);
+            user.setUsername("user" + i);
+            user.setEmail("user" + i + "@example.com");
+            users.add(user);
+        }
+
+        List<Message> messages = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Message parent = i == 0 ? null : messages.get(parentOf(i));
+            Message message = new Message();
+            message.setId((long) i + 1);
+            message.setContent("Benchmark message number " + i);
+            message.setUser(users.get(i % USERS));
+            message.setParent(parent);
+            message.setCreatedAt(START.plusSeconds(i));
+            message.setReplyCount(0);
+            message.setDescendantCount(0);
+            messages.add(message);
+        }
+        // Every message is added to its ancestors' counters; walk up by index to avoid deep recursion
+        int[] parents = new int[size];
+        for (int i = 1; i < size; i++) {
+            parents[i] = parentOf(i);
+            Message parent = messages.get(parents[i]);
+            parent.setReplyCount(parent.getReplyCount() + 1);
+        }
+        for (int i = size - 1; i > 0; i--) {
+            Message parent = messages.get(parents[i]);
+            parent.setDescendantCount(parent.getDescendantCount() + messages.get(i).getDescendantCount() + 1);
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,13 @@
+package com.message.tree.backend.config;
+
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Caches are Caffeine caches configured by {@code spring.cache.*}, their hit and miss counts
+ * are published as the {@code cache.gets} metric
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+}
@@ -0,0 +1,59 @@
+package com.message.tree.backend.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.sqlite.SQLiteOpenMode;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+
+/**
+ * Two pools on the same SQLite file: a single read-write connection for all writes and a
+ * pool of read-only connections for {@code @Transactional(readOnly = true)} work (which
+ * includes every plain Spring Data finder). In WAL mode readers never wait for the writer,
+ * so only the read pool needs more than one connection.
+ * <p>
+ * Both pools publish Hikari's metrics, {@code hikaricp.connections.acquire} tagged with the
+ * pool name is the time spent waiting for a connection.
+ */
+@Configuration
+public class DataSourceConfig {
+
+    @Bean
+    public HikariDataSource writeDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("sqlite-writer");
+        dataSource.setMaximumPoolSize(1);
+        return dataSource;
+    }
+
+    @Bean
+    public HikariDataSource readDataSource(DataSourceProperties properties,
+                                           @Value("${app.datasource.read-pool-size:0}") int poolSize) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("sqlite-reader");
+        dataSource.setMaximumPoolSize(poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors());
+        dataSource.setReadOnly(true);
+        dataSource.addDataSourceProperty("open_mode", String.valueOf(SQLiteOpenMode.READONLY.flag));
+        return dataSource;
+    }
+
+    /**
+     * The physical connection is only fetched on first use, by then the transaction has
+     * marked it read-only or not and the proxy picks the pool accordingly
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(HikariDataSource writeDataSource, HikariDataSource readDataSource) {
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(writeDataSource);
+        dataSource.setReadOnlyDataSource(readDataSource);
+        dataSource.setDefaultAutoCommit(true);
+        dataSource.setDefaultTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        return dataSource;
+    }
+}
@@ -5,6 +5,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.context.request.async.AsyncRequestNotUsableException;
 
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -27,6 +28,22 @@ public class GlobalExceptionHandler {
                 .body(AuthResponse.builder().success(false).message(errorMessage).build());
     }
 
+    /**
+     * Handle invalid request arguments
+     */
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<AuthResponse> handleIllegalArgument(IllegalArgumentException ex) {
+        return ResponseEntity.badRequest()
+                .body(AuthResponse.builder().success(false).message(ex.getMessage()).build());
+    }
+
+    /**
+     * A streaming client went away, there is nobody left to answer
+     */
+    @ExceptionHandler(AsyncRequestNotUsableException.class)
+    public void handleClientGone() {
+    }
+
     /**
      * Handle general exceptions
      */
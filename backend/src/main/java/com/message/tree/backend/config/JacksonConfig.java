@@ -0,0 +1,54 @@
+package com.message.tree.backend.config;
+
+import com.fasterxml.jackson.core.StreamWriteConstraints;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+@Configuration
+public class JacksonConfig {
+
+    @Bean
+    public Jackson2ObjectMapperBuilderCustomizer deepNestingCustomizer() {
+        return builder -> builder.postConfigurer(JacksonConfig::allowDeepNesting);
+    }
+
+    /**
+     * Binary encodings for clients that send {@code Accept: application/cbor} or
+     * {@code application/x-jackson-smile}. Built from the application's builder rather than
+     * MVC's defaults, so they share every Jackson setting with JSON, deep nesting included.
+     */
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+    }
+
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2SmileHttpMessageConverter(builder.factory(new SmileFactory()).build());
+    }
+
+    /**
+     * JSON for /tree without serializing it, ahead of the Jackson converters
+     */
+    @Bean
+    public PrerenderedTreeConverter prerenderedTreeConverter() {
+        return new PrerenderedTreeConverter();
+    }
+
+    /**
+     * Every thread level nests an object and a children array, so Jackson's default write
+     * limit of 1000 levels would cut threads off at about 500 replies deep
+     */
+    public static void allowDeepNesting(ObjectMapper objectMapper) {
+        objectMapper.getFactory().setStreamWriteConstraints(StreamWriteConstraints.builder()
+                .maxNestingDepth(Integer.MAX_VALUE)
+                .build());
+    }
+}
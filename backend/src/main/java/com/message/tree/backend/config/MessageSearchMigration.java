@@ -0,0 +1,64 @@
+package com.message.tree.backend.config;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Creates the {@code message_fts} full-text index over {@code message.content}. It is an
+ * external content FTS5 table, so the text is not stored twice, and triggers keep it in step
+ * with every insert, update and delete on {@code message} in the same transaction, whichever
+ * code path writes. When the table is first created it is filled from the existing rows.
+ * {@code message_fts_vocab} reads the number of messages containing each term off the index.
+ */
+@Slf4j
+@Component
+@DependsOn("entityManagerFactory")
+@RequiredArgsConstructor
+public class MessageSearchMigration {
+    private static final String[] DDL = {
+            """
+            CREATE VIRTUAL TABLE IF NOT EXISTS message_fts USING fts5(
+                content, content = 'message', content_rowid = 'id', tokenize = 'unicode61 remove_diacritics 2')
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS message_fts_insert AFTER INSERT ON message BEGIN
+                INSERT INTO message_fts (rowid, content) VALUES (new.id, new.content);
+            END
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS message_fts_delete AFTER DELETE ON message BEGIN
+                INSERT INTO message_fts (message_fts, rowid, content) VALUES ('delete', old.id, old.content);
+            END
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS message_fts_update AFTER UPDATE OF content ON message BEGIN
+                INSERT INTO message_fts (message_fts, rowid, content) VALUES ('delete', old.id, old.content);
+                INSERT INTO message_fts (rowid, content) VALUES (new.id, new.content);
+            END
+            """,
+            "CREATE VIRTUAL TABLE IF NOT EXISTS message_fts_vocab USING fts5vocab(message_fts, 'row')"
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void migrate() {
+        Integer existing = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM sqlite_master WHERE name = 'message_fts'", Integer.class);
+        transactionTemplate.executeWithoutResult(status -> {
+            for (String ddl : DDL) {
+                jdbcTemplate.execute(ddl);
+            }
+            if (existing == null || existing == 0) {
+                log.info("Building the full-text index over existing messages");
+                jdbcTemplate.execute("INSERT INTO message_fts (message_fts) VALUES ('rebuild')");
+            }
+        });
+    }
+}
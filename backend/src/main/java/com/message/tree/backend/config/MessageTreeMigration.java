@@ -0,0 +1,141 @@
+package com.message.tree.backend.config;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+
+/**
+ * Backfills the denormalized tree columns ({@code path}, {@code depth}, {@code reply_count},
+ * {@code descendant_count}) for rows written before those columns existed. Runs after
+ * Hibernate has updated the schema and is a no-op once every row is filled in.
+ */
+@Slf4j
+@Component
+@DependsOn("entityManagerFactory")
+@RequiredArgsConstructor
+public class MessageTreeMigration {
+    private static final int BATCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void migrate() {
+        backfillPaths();
+        backfillCounters();
+    }
+
+    private void backfillPaths() {
+        Integer missing = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM message WHERE path IS NULL", Integer.class);
+        if (missing == null || missing == 0) {
+            return;
+        }
+        log.info("Backfilling materialized paths for {} messages", missing);
+
+        Map<Long, Long> parents = new HashMap<>();
+        List<Long> pending = new ArrayList<>();
+        jdbcTemplate.query("SELECT id, parent_id, path FROM message", rs -> {
+            long id = rs.getLong(1);
+            long parentId = rs.getLong(2);
+            parents.put(id, rs.wasNull() ? null : parentId);
+            if (rs.getString(3) == null) {
+                pending.add(id);
+            }
+        });
+
+        Map<Long, String> paths = new HashMap<>();
+        List<Object[]> updates = new ArrayList<>(pending.size());
+        for (Long id : pending) {
+            String path = pathOf(id, parents, paths);
+            updates.add(new Object[]{path, depthOf(path), id});
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            for (int i = 0; i < updates.size(); i += BATCH_SIZE) {
+                jdbcTemplate.batchUpdate("UPDATE message SET path = ?, depth = ? WHERE id = ?",
+                        updates.subList(i, Math.min(i + BATCH_SIZE, updates.size())));
+            }
+        });
+        log.info("Backfilled materialized paths for {} messages", updates.size());
+    }
+
+    private void backfillCounters() {
+        Integer missing = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM message WHERE reply_count IS NULL OR descendant_count IS NULL", Integer.class);
+        if (missing == null || missing == 0) {
+            return;
+        }
+        log.info("Backfilling reply counters for {} messages", missing);
+
+        Map<Long, Long> parents = new HashMap<>();
+        // Deepest rows first, so every subtree is complete before it is added to its parent
+        List<Long> ids = new ArrayList<>();
+        jdbcTemplate.query("SELECT id, parent_id FROM message ORDER BY depth DESC", rs -> {
+            long id = rs.getLong(1);
+            long parentId = rs.getLong(2);
+            parents.put(id, rs.wasNull() ? null : parentId);
+            ids.add(id);
+        });
+
+        Map<Long, Integer> replies = new HashMap<>();
+        Map<Long, Integer> descendants = new HashMap<>();
+        for (Long id : ids) {
+            Long parentId = parents.get(id);
+            if (parentId != null && parents.containsKey(parentId)) {
+                replies.merge(parentId, 1, Integer::sum);
+                descendants.merge(parentId, descendants.getOrDefault(id, 0) + 1, Integer::sum);
+            }
+        }
+
+        List<Object[]> updates = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            updates.add(new Object[]{replies.getOrDefault(id, 0), descendants.getOrDefault(id, 0), id});
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            for (int i = 0; i < updates.size(); i += BATCH_SIZE) {
+                jdbcTemplate.batchUpdate("UPDATE message SET reply_count = ?, descendant_count = ? WHERE id = ?",
+                        updates.subList(i, Math.min(i + BATCH_SIZE, updates.size())));
+            }
+        });
+        log.info("Backfilled reply counters for {} messages", updates.size());
+    }
+
+    /**
+     * Resolve the ancestor path of a message without recursion, memoizing every path on the way
+     */
+    private static String pathOf(Long id, Map<Long, Long> parents, Map<Long, String> paths) {
+        Deque<Long> chain = new ArrayDeque<>();
+        Long current = id;
+        while (current != null && !paths.containsKey(current)) {
+            chain.push(current);
+            Long parentId = parents.get(current);
+            // A reply to a message that no longer exists is treated as top-level
+            current = parentId != null && parents.containsKey(parentId) ? parentId : null;
+            if (current == null) {
+                paths.put(chain.pop(), "");
+            }
+        }
+        while (!chain.isEmpty()) {
+            Long child = chain.pop();
+            Long parentId = parents.get(child);
+            paths.put(child, paths.get(parentId) + parentId + "/");
+        }
+        return paths.get(id);
+    }
+
+    private static int depthOf(String path) {
+        int depth = 0;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+}
@@ -0,0 +1,96 @@
+package com.message.tree.backend.config;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistence metrics on top of what actuator publishes by itself ({@code http.server.requests},
+ * Spring Data's {@code spring.data.repository.invocations} timer, Hikari, and {@code hibernate.*}
+ * from Hibernate's statistics, which {@code hibernate.generate_statistics} turns on):
+ * <ul>
+ *     <li>{@code spring.data.repository.rows}, the rows each repository method returned or
+ *     updated</li>
+ *     <li>{@code http.server.requests.statements}, see {@link StatementCountingFilter}</li>
+ * </ul>
+ * Everything is scraped from {@code /actuator/prometheus}, which takes an admin's credentials,
+ * see {@link SecurityConfig#actuatorFilterChain}.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public StatementCountingFilter statementCountingFilter(ObjectProvider<MeterRegistry> meterRegistry) {
+        return new StatementCountingFilter(meterRegistry);
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer statementCounting(StatementCountingFilter statementCountingFilter) {
+        return properties -> properties.put(AvailableSettings.STATEMENT_INSPECTOR, statementCountingFilter);
+    }
+
+    /**
+     * Same hook actuator uses for its repository timer: every repository proxy gets an advice
+     * that records the size of what the method returned
+     */
+    @Bean
+    public static BeanPostProcessor repositoryRowMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof RepositoryFactoryBeanSupport<?, ?, ?> factoryBean) {
+                    factoryBean.addRepositoryFactoryCustomizer(factory -> factory.addRepositoryProxyPostProcessor(
+                            (proxyFactory, information) -> proxyFactory.addAdvice(
+                                    rowCounter(meterRegistry, information.getRepositoryInterface()))));
+                }
+                return bean;
+            }
+        };
+    }
+
+    private static MethodInterceptor rowCounter(ObjectProvider<MeterRegistry> meterRegistry, Class<?> repository) {
+        Map<Method, DistributionSummary> summaries = new ConcurrentHashMap<>();
+        return invocation -> {
+            Object result = invocation.proceed();
+            long rows = rows(result);
+            if (rows >= 0) {
+                summaries.computeIfAbsent(invocation.getMethod(), method -> DistributionSummary
+                                .builder("spring.data.repository.rows")
+                                .tag("repository", repository.getSimpleName())
+                                .tag("method", method.getName())
+                                .register(meterRegistry.getObject()))
+                        .record(rows);
+            }
+            return result;
+        };
+    }
+
+    /**
+     * Row count of a repository result, -1 for single entities and anything else without one
+     */
+    private static long rows(Object result) {
+        return switch (result) {
+            case Collection<?> collection -> collection.size();
+            case Map<?, ?> map -> map.size();
+            case Slice<?> slice -> slice.getNumberOfElements();
+            case Optional<?> optional -> optional.isPresent() ? 1 : 0;
+            // Modifying queries report the rows they updated
+            case Integer updated -> updated;
+            case null, default -> -1;
+        };
+    }
+}
@@ -0,0 +1,62 @@
+package com.message.tree.backend.config;
+
+import com.message.tree.backend.dto.PrerenderedTree;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Writes a {@link PrerenderedTree} as a JSON array by copying each thread's bytes to the
+ * response, without running a serializer. Other encodings fall through to the Jackson converters.
+ */
+public class PrerenderedTreeConverter extends AbstractHttpMessageConverter<PrerenderedTree> {
+
+    public PrerenderedTreeConverter() {
+        super(MediaType.APPLICATION_JSON);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return PrerenderedTree.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected PrerenderedTree readInternal(Class<? extends PrerenderedTree> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("PrerenderedTree is write-only", inputMessage);
+    }
+
+    @Override
+    protected Long getContentLength(PrerenderedTree tree, MediaType contentType) {
+        List<byte[]> threads = tree.threads();
+        long length = 2 + Math.max(0, threads.size() - 1);
+        for (byte[] thread : threads) {
+            length += thread.length;
+        }
+        return length;
+    }
+
+    @Override
+    protected void writeInternal(PrerenderedTree tree, HttpOutputMessage outputMessage) throws IOException {
+        OutputStream out = outputMessage.getBody();
+        List<byte[]> threads = tree.threads();
+        out.write('[');
+        for (int i = 0; i < threads.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write(threads.get(i));
+        }
+        out.write(']');
+    }
+}
@@ -4,6 +4,8 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpMethod;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
@@ -28,6 +30,25 @@ public class SecurityConfig {
     private final PasswordEncoder passwordEncoder;
 
 
+    /**
+     * Actuator: health is public, metrics are for admins only. Scrapers send HTTP Basic
+     * credentials on every request; a logged-in admin's session works as well.
+     */
+    @Bean
+    @Order(1)
+    public SecurityFilterChain actuatorFilterChain(HttpSecurity http) throws Exception {
+        http
+            .securityMatcher("/actuator/**")
+            .csrf(AbstractHttpConfigurer::disable)
+            .authorizeHttpRequests(auth -> auth
+                .requestMatchers("/actuator/health", "/actuator/health/**").permitAll()
+                .anyRequest().hasRole("ADMIN")
+            )
+            .httpBasic(withDefaults())
+            .userDetailsService(userDetailsService);
+        return http.build();
+    }
+
     @Bean
     public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
         http
@@ -35,6 +56,8 @@ public class SecurityConfig {
             .csrf(AbstractHttpConfigurer::disable)
             .authorizeHttpRequests(auth -> auth
                 .requestMatchers("/api/auth/register", "/api/auth/login").permitAll()
+                // Holds the tree's write lock for a full reload, stalling every read meanwhile
+                .requestMatchers(HttpMethod.POST, "/api/messages/tree/rebuild").hasRole("ADMIN")
                 .requestMatchers("/api/messages/**").permitAll()
                 .anyRequest().authenticated()
             )
@@ -0,0 +1,60 @@
+package com.message.tree.backend.config;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+
+/**
+ * Counts the SQL statements Hibernate prepares while a request is being handled and records
+ * them as {@code http.server.requests.statements}, tagged with method and URI pattern like
+ * {@code http.server.requests}. A rise for one endpoint is an N+1 regression.
+ * <p>
+ * Only statements on the request thread count: writes run on the message writer and their
+ * statements belong to no request.
+ */
+public class StatementCountingFilter extends OncePerRequestFilter implements StatementInspector {
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+    private final ThreadLocal<int[]> statements = new ThreadLocal<>();
+
+    public StatementCountingFilter(ObjectProvider<MeterRegistry> meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public String inspect(String sql) {
+        int[] count = statements.get();
+        if (count != null) {
+            count[0]++;
+        }
+        return sql;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        int[] count = new int[1];
+        statements.set(count);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            statements.remove();
+            // Requests no handler matched have no URI pattern and would only add noise
+            if (request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE) instanceof String uri) {
+                DistributionSummary.builder("http.server.requests.statements")
+                        .tag("method", request.getMethod())
+                        .tag("uri", uri)
+                        .register(meterRegistry.getObject())
+                        .record(count[0]);
+            }
+        }
+    }
+}
@@ -1,27 +1,56 @@
 package com.message.tree.backend.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.message.tree.backend.dto.AuthResponse;
+import com.message.tree.backend.dto.ChildrenBatchRequest;
 import com.message.tree.backend.dto.CreateMessageRequest;
+import com.message.tree.backend.dto.FlatTree;
+import com.message.tree.backend.dto.ImportMessagesRequest;
+import com.message.tree.backend.dto.ImportMessagesResponse;
 import com.message.tree.backend.dto.MessageDto;
 import com.message.tree.backend.dto.MessageIdResponse;
+import com.message.tree.backend.dto.MessagePage;
+import com.message.tree.backend.dto.PrerenderedTree;
+import com.message.tree.backend.dto.SearchPage;
 import com.message.tree.backend.entity.Message;
 import com.message.tree.backend.entity.User;
+import com.message.tree.backend.service.MessageFeed;
+import com.message.tree.backend.service.MessageImportService;
+import com.message.tree.backend.service.MessageSearchService;
 import com.message.tree.backend.service.MessageService;
 import com.message.tree.backend.service.UserService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.security.Principal;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/messages")
 @RequiredArgsConstructor
 public class MessageController {
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final String NDJSON = "application/x-ndjson";
+
     private final MessageService messageService;
+    private final MessageImportService messageImportService;
+    private final MessageSearchService messageSearchService;
+    private final MessageFeed messageFeed;
     private final UserService userService;
+    private final ObjectMapper objectMapper;
 
     @PostMapping
     public ResponseEntity<MessageIdResponse> createMessage(@RequestBody @Validated CreateMessageRequest request, Principal principal) {
@@ -36,21 +65,277 @@ public class MessageController {
         return ResponseEntity.ok(new MessageIdResponse(message.getId()));
     }
 
+    /**
+     * Create a whole batch of messages in one transaction; replies reference their parent by
+     * the client-side ref of an earlier message in the batch or by the id of an existing one
+     */
+    @PostMapping("/import")
+    public ResponseEntity<ImportMessagesResponse> importMessages(@RequestBody @Validated ImportMessagesRequest request,
+                                                                 Principal principal) {
+        if (principal == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        User user = userService.findByUsername(principal.getName()).orElse(null);
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        Map<String, Long> ids = messageImportService.importMessages(user, request.getMessages());
+        return ResponseEntity.ok(new ImportMessagesResponse(ids));
+    }
+
     @GetMapping
-    public ResponseEntity<List<MessageDto>> getAllMessages() {
+    public ResponseEntity<List<MessageDto>> getAllMessages(WebRequest request) {
+        String etag = etag(messageService.getTreeVersion());
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
         List<MessageDto> messages = messageService.getAllTopLevelMessages();
-        return ResponseEntity.ok(messages);
+        return revalidated(etag).body(messages);
+    }
+
+    @GetMapping(params = "limit")
+    public ResponseEntity<MessagePage> getMessagesPage(@RequestParam int limit,
+                                                       @RequestParam(required = false) String after,
+                                                       WebRequest request) {
+        String etag = etag(messageService.getTreeVersion());
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return revalidated(etag).body(messageService.getTopLevelMessagesPage(after, pageSize(limit)));
     }
 
+    /**
+     * The whole forest; JSON is spliced from pre-rendered threads, see {@link PrerenderedTree}
+     */
     @GetMapping("/tree")
-    public ResponseEntity<List<MessageDto>> getAllMessagesWithTree() {
-        List<MessageDto> messages = messageService.getAllMessagesWithTree();
-        return ResponseEntity.ok(messages);
+    public ResponseEntity<PrerenderedTree> getAllMessagesWithTree(WebRequest request) {
+        String etag = etag(messageService.getTreeVersion());
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return revalidated(etag).body(messageService.getPrerenderedTree());
+    }
+
+    /**
+     * Bounded first paint of /tree: a page of {@code limit} threads, paged like the top-level
+     * messages, each down to {@code depth} levels of replies with at most {@code maxChildren}
+     * replies per message. Where replies were cut off a message has {@code hasMore}; its
+     * replies continue at /{id}/children?limit=K, with {@code after} set to its {@code next}
+     * when it has one. There is no flat layout of the bounded tree.
+     */
+    @GetMapping(value = "/tree", params = "depth")
+    public ResponseEntity<MessagePage> getBoundedTree(@RequestParam int depth,
+                                                      @RequestParam(defaultValue = "20") int limit,
+                                                      @RequestParam(defaultValue = "20") int maxChildren,
+                                                      @RequestParam(required = false) String after,
+                                                      @RequestParam(required = false) String layout,
+                                                      WebRequest request) {
+        if (layout != null) {
+            throw new IllegalArgumentException("layout cannot be combined with depth");
+        }
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must not be negative");
+        }
+        if (maxChildren < 1) {
+            throw new IllegalArgumentException("maxChildren must be positive");
+        }
+        String etag = etag(messageService.getTreeVersion());
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return revalidated(etag).body(messageService.getBoundedTree(after, pageSize(limit), depth, maxChildren));
+    }
+
+    /**
+     * /tree as parallel arrays with a user dictionary, see {@link FlatTree}
+     */
+    @GetMapping(value = "/tree", params = {"layout=flat", "!depth"})
+    public ResponseEntity<FlatTree> getFlatTree(WebRequest request) {
+        String etag = etag(messageService.getTreeVersion());
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return revalidated(etag).body(messageService.getFlatTree());
+    }
+
+    /**
+     * Streaming variant of /tree for clients that accept application/x-ndjson: one flat message
+     * per line in depth-first order, each carrying its parentId
+     */
+    @GetMapping(value = "/tree", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamAllMessagesWithTree(WebRequest request) {
+        String etag = etag(messageService.getTreeVersion());
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        ObjectWriter writer = objectMapper.writerFor(MessageDto.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                generator.setRootValueSeparator(null);
+                messageService.streamAllMessages(batch -> {
+                    for (MessageDto message : batch) {
+                        writer.writeValue(generator, message);
+                        generator.writeRaw('\n');
+                    }
+                    generator.flush();
+                });
+            }
+        };
+        return revalidated(etag).contentType(MediaType.parseMediaType(NDJSON)).body(body);
+    }
+
+    /**
+     * Server-sent events with every message created from now on, only those below
+     * {@code subtreeId} when given. Reconnecting with Last-Event-ID replays what was missed,
+     * or sends a "reset" event when that is no longer possible and the client should reload.
+     */
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@RequestParam(required = false) Long subtreeId,
+                             @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        return messageFeed.subscribe(subtreeId, lastEventId);
+    }
+
+    /**
+     * Messages containing every word of {@code q}, best match first, each with its thread's root id
+     */
+    @GetMapping("/search")
+    public ResponseEntity<SearchPage> search(@RequestParam String q,
+                                             @RequestParam(defaultValue = "20") int limit,
+                                             @RequestParam(required = false) String after,
+                                             WebRequest request) {
+        String etag = etag(messageService.getTreeVersion());
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return revalidated(etag).body(messageSearchService.search(q, after, pageSize(limit)));
+    }
+
+    /**
+     * Reload the tree index from the database, admins only
+     */
+    @PostMapping("/tree/rebuild")
+    public ResponseEntity<AuthResponse> rebuildTree() {
+        int size = messageService.rebuildTreeIndex();
+        return ResponseEntity.ok(AuthResponse.builder().success(true).message("Indexed " + size + " messages").build());
     }
 
     @GetMapping("/{id}/children")
-    public ResponseEntity<List<MessageDto>> getChildren(@PathVariable Long id) {
+    public ResponseEntity<List<MessageDto>> getChildren(@PathVariable Long id, WebRequest request) {
+        String etag = etag(childrenVersion(id));
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
         List<MessageDto> children = messageService.getChildrenByParentId(id);
-        return ResponseEntity.ok(children);
+        return revalidated(etag).body(children);
+    }
+
+    /**
+     * Replies of several messages in one round trip, for expanding a whole thread. Keys follow
+     * the order of the request and unknown ids map to an empty list.
+     */
+    @PostMapping("/children:batch")
+    public ResponseEntity<Map<Long, List<MessageDto>>> getChildrenBatch(@RequestBody @Validated ChildrenBatchRequest request) {
+        return ResponseEntity.ok(messageService.getChildrenByParentIds(request.getParentIds()));
+    }
+
+    @GetMapping(value = "/{id}/children", params = "limit")
+    public ResponseEntity<MessagePage> getChildrenPage(@PathVariable Long id,
+                                                       @RequestParam int limit,
+                                                       @RequestParam(required = false) String after,
+                                                       WebRequest request) {
+        String etag = etag(childrenVersion(id));
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return revalidated(etag).body(messageService.getChildrenPage(id, after, pageSize(limit)));
+    }
+
+    @GetMapping("/{id}/subtree")
+    public ResponseEntity<MessageDto> getSubtree(@PathVariable Long id,
+                                                 @RequestParam(required = false) Integer maxDepth,
+                                                 WebRequest request) {
+        if (maxDepth != null && maxDepth < 0) {
+            throw new IllegalArgumentException("maxDepth must not be negative");
+        }
+        String version = messageService.getSubtreeVersion(id);
+        if (version == null) {
+            return messageService.getSubtree(id, maxDepth)
+                    .map(ResponseEntity::ok)
+                    .orElse(ResponseEntity.notFound().build());
+        }
+        String etag = etag(version);
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return messageService.getSubtree(id, maxDepth)
+                .map(subtree -> revalidated(etag).body(subtree))
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    /**
+     * /subtree as parallel arrays with a user dictionary, see {@link FlatTree}
+     */
+    @GetMapping(value = "/{id}/subtree", params = "layout=flat")
+    public ResponseEntity<FlatTree> getFlatSubtree(@PathVariable Long id,
+                                                   @RequestParam(required = false) Integer maxDepth,
+                                                   WebRequest request) {
+        if (maxDepth != null && maxDepth < 0) {
+            throw new IllegalArgumentException("maxDepth must not be negative");
+        }
+        String version = messageService.getSubtreeVersion(id);
+        if (version == null) {
+            return messageService.getFlatSubtree(id, maxDepth)
+                    .map(ResponseEntity::ok)
+                    .orElse(ResponseEntity.notFound().build());
+        }
+        String etag = etag(version);
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return messageService.getFlatSubtree(id, maxDepth)
+                .map(subtree -> revalidated(etag).body(subtree))
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @GetMapping("/{id}/ancestors")
+    public ResponseEntity<List<MessageDto>> getAncestors(@PathVariable Long id) {
+        List<MessageDto> ancestors = messageService.getAncestors(id);
+        if (ancestors.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(ancestors);
+    }
+
+    /**
+     * A message nobody knows yet has no replies, but it may appear with any later version
+     */
+    private String childrenVersion(Long id) {
+        String version = messageService.getSubtreeVersion(id);
+        return version != null ? version : messageService.getTreeVersion();
+    }
+
+    /**
+     * ETag for a version of the in-memory tree. Handlers read the version before the data, so a
+     * tag is never newer than its body, and answer a matching If-None-Match with 304 before
+     * building anything. Weak, because the same version is served as JSON, NDJSON, CBOR and Smile.
+     */
+    private static String etag(String version) {
+        return "W/\"" + version + "\"";
+    }
+
+    /**
+     * Clients may keep the response but must check its ETag before reusing it; caches keep one
+     * copy per negotiated encoding
+     */
+    private static ResponseEntity.BodyBuilder revalidated(String etag) {
+        return ResponseEntity.ok().eTag(etag).cacheControl(CacheControl.noCache()).varyBy(HttpHeaders.ACCEPT);
+    }
+
+    private static int pageSize(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        return Math.min(limit, MAX_PAGE_SIZE);
     }
-} 
\ No newline at end of file
+}
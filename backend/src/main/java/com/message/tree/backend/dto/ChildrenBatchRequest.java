@@ -0,0 +1,15 @@
+package com.message.tree.backend.dto;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class ChildrenBatchRequest {
+    @NotEmpty(message = "Parent ids cannot be empty")
+    @Size(max = 1000, message = "At most 1000 parents per batch")
+    private List<@NotNull Long> parentIds;
+}
@@ -0,0 +1,52 @@
+package com.message.tree.backend.dto;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Messages as parallel arrays, the flat alternative to nested {@link MessageDto}s: entry i of
+ * every array describes the same message and the arrays are named after the
+ * {@code MessageDto} fields. Parents always come before their replies, so a client rebuilds
+ * the tree in one pass over {@code parentId}. Each user is sent once in {@code users} and
+ * referenced by index from {@code user}; {@code hasChildren} is {@code replyCount > 0}.
+ */
+@Getter
+public class FlatTree {
+    private final List<UserInfo> users = new ArrayList<>();
+    private final List<Long> id = new ArrayList<>();
+    private final List<Long> parentId = new ArrayList<>();
+    private final List<String> content = new ArrayList<>();
+    private final List<LocalDateTime> createdAt = new ArrayList<>();
+    private final List<Integer> user = new ArrayList<>();
+    private final List<Integer> replyCount = new ArrayList<>();
+    private final List<Integer> descendantCount = new ArrayList<>();
+    @Getter(AccessLevel.NONE)
+    private final Map<UserInfo, Integer> userIndexes = new HashMap<>();
+
+    /**
+     * Append a message, after its parent
+     */
+    public void add(long id, Long parentId, String content, LocalDateTime createdAt, UserInfo user,
+                    int replyCount, int descendantCount) {
+        this.id.add(id);
+        this.parentId.add(parentId);
+        this.content.add(content);
+        this.createdAt.add(createdAt);
+        this.user.add(userIndexes.computeIfAbsent(user, key -> {
+            users.add(key);
+            return users.size() - 1;
+        }));
+        this.replyCount.add(replyCount);
+        this.descendantCount.add(descendantCount);
+    }
+
+    public int size() {
+        return id.size();
+    }
+}
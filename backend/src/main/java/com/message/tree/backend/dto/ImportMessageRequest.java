@@ -0,0 +1,31 @@
+package com.message.tree.backend.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * One message of a bulk import. Replies point at their parent either by the client-side
+ * {@code parentRef} of an earlier message in the same batch or by the {@code parentId} of a
+ * message that already exists.
+ */
+@Data
+public class ImportMessageRequest {
+    @NotBlank(message = "Reference cannot be empty")
+    private String ref;
+
+    private String parentRef;
+
+    private Long parentId;
+
+    @NotBlank(message = "Message content cannot be empty")
+    @Size(min = 3, max = 200, message = "Message must be 3-200 characters")
+    private String content;
+
+    /**
+     * Original creation time, defaults to the time of the import
+     */
+    private LocalDateTime createdAt;
+}
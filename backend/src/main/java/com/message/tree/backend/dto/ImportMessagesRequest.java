@@ -0,0 +1,15 @@
+package com.message.tree.backend.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class ImportMessagesRequest {
+    @NotEmpty(message = "Messages cannot be empty")
+    @Size(max = 50000, message = "At most 50000 messages per import")
+    private List<@Valid ImportMessageRequest> messages;
+}
@@ -0,0 +1,15 @@
+package com.message.tree.backend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+public class ImportMessagesResponse {
+    /**
+     * Client-side reference to the id assigned to that message
+     */
+    private Map<String, Long> ids;
+}
@@ -1,6 +1,6 @@
 package com.message.tree.backend.dto;
 
-import lombok.AllArgsConstructor;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
@@ -9,13 +9,39 @@ import java.util.List;
 
 @Data
 @NoArgsConstructor
-@AllArgsConstructor
+@JsonSerialize(using = MessageDtoSerializer.class)
 public class MessageDto {
     private Long id;
+    private Long parentId;
     private String content;
     private LocalDateTime createdAt;
     private UserInfo user;
+    /**
+     * Nested replies; null (and omitted from JSON) when the message is sent on its own,
+     * e.g. as one streamed line
+     */
     private List<MessageDto> children;
     private boolean hasChildren;
+    private int replyCount;
+    private int descendantCount;
+    /**
+     * Only in depth- and breadth-limited trees: whether replies were left out of
+     * {@code children}, and the cursor for the rest of them in the children pages when some
+     * were included; both null (and omitted from JSON) everywhere else
+     */
+    private Boolean hasMore;
+    private String next;
 
+    public MessageDto(Long id, Long parentId, String content, LocalDateTime createdAt, UserInfo user,
+                      List<MessageDto> children, boolean hasChildren, int replyCount, int descendantCount) {
+        this.id = id;
+        this.parentId = parentId;
+        this.content = content;
+        this.createdAt = createdAt;
+        this.user = user;
+        this.children = children;
+        this.hasChildren = hasChildren;
+        this.replyCount = replyCount;
+        this.descendantCount = descendantCount;
+    }
 }
@@ -0,0 +1,88 @@
+package com.message.tree.backend.dto;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Writes a {@link MessageDto} and all of its nested replies with an explicit stack instead of
+ * one bean serializer call per level, so thread depth is not bounded by the JVM stack.
+ * Produces the same fields, in the same order, as the default bean serializer would.
+ */
+public class MessageDtoSerializer extends StdSerializer<MessageDto> {
+
+    public MessageDtoSerializer() {
+        super(MessageDto.class);
+    }
+
+    @Override
+    public void serialize(MessageDto message, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        Deque<Frame> stack = new ArrayDeque<>();
+        Frame frame = writeHead(message, gen, provider);
+        if (frame != null) {
+            stack.push(frame);
+        }
+        while (!stack.isEmpty()) {
+            Frame top = stack.peek();
+            if (top.next < top.children.size()) {
+                Frame child = writeHead(top.children.get(top.next++), gen, provider);
+                if (child != null) {
+                    stack.push(child);
+                }
+            } else {
+                stack.pop();
+                gen.writeEndArray();
+                writeTail(top.message, gen);
+            }
+        }
+    }
+
+    /**
+     * Open the object and write everything up to the children; returns the frame to descend
+     * into, or null when the message has no children field and is already closed
+     */
+    private static Frame writeHead(MessageDto message, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        gen.writeStartObject(message);
+        provider.defaultSerializeField("id", message.getId(), gen);
+        provider.defaultSerializeField("parentId", message.getParentId(), gen);
+        provider.defaultSerializeField("content", message.getContent(), gen);
+        provider.defaultSerializeField("createdAt", message.getCreatedAt(), gen);
+        provider.defaultSerializeField("user", message.getUser(), gen);
+        List<MessageDto> children = message.getChildren();
+        if (children == null) {
+            writeTail(message, gen);
+            return null;
+        }
+        gen.writeArrayFieldStart("children");
+        return new Frame(message, children);
+    }
+
+    private static void writeTail(MessageDto message, JsonGenerator gen) throws IOException {
+        gen.writeBooleanField("hasChildren", message.isHasChildren());
+        gen.writeNumberField("replyCount", message.getReplyCount());
+        gen.writeNumberField("descendantCount", message.getDescendantCount());
+        if (message.getHasMore() != null) {
+            gen.writeBooleanField("hasMore", message.getHasMore());
+        }
+        if (message.getNext() != null) {
+            gen.writeStringField("next", message.getNext());
+        }
+        gen.writeEndObject();
+    }
+
+    private static final class Frame {
+        private final MessageDto message;
+        private final List<MessageDto> children;
+        private int next;
+
+        private Frame(MessageDto message, List<MessageDto> children) {
+            this.message = message;
+            this.children = children;
+        }
+    }
+}
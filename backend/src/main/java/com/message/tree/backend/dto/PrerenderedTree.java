@@ -0,0 +1,37 @@
+package com.message.tree.backend.dto;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * The whole forest as /tree returns it. JSON is written by splicing the JSON of each thread,
+ * which the tree index keeps rendered; every other encoding serializes the nested
+ * {@link MessageDto}s. Each form is only produced when it is written.
+ */
+public class PrerenderedTree {
+    private final Supplier<List<byte[]>> threadsSupplier;
+    private final Supplier<List<MessageDto>> treeSupplier;
+    private List<byte[]> threads;
+
+    public PrerenderedTree(Supplier<List<byte[]>> threads, Supplier<List<MessageDto>> tree) {
+        this.threadsSupplier = threads;
+        this.treeSupplier = tree;
+    }
+
+    /**
+     * The JSON of every top-level message with its replies, newest first
+     */
+    public List<byte[]> threads() {
+        if (threads == null) {
+            threads = threadsSupplier.get();
+        }
+        return threads;
+    }
+
+    @JsonValue
+    public List<MessageDto> tree() {
+        return treeSupplier.get();
+    }
+}
@@ -0,0 +1,17 @@
+package com.message.tree.backend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * A message matching a search, without its replies
+ */
+@Data
+@AllArgsConstructor
+public class SearchHit {
+    private MessageDto message;
+    /**
+     * Top-level message of the thread the hit belongs to, the hit's own id if it is one
+     */
+    private Long rootId;
+}
@@ -0,0 +1,19 @@
+package com.message.tree.backend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * One page of search hits, best match first
+ */
+@Data
+@AllArgsConstructor
+public class SearchPage {
+    private List<SearchHit> items;
+    /**
+     * Opaque cursor for the next page, null on the last page
+     */
+    private String next;
+}
@@ -13,7 +13,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "message")
+@Table(name = "message", indexes = @Index(name = "idx_message_path", columnList = "path"))
 @Data
 @ToString(exclude = {"parent", "children"}) 
 @JsonIgnoreProperties({"hibernateLazyInitializer", "handler"})
@@ -40,4 +40,48 @@ public class Message {
 
     @Column(nullable = false)
     private LocalDateTime createdAt;
+
+    /**
+     * Materialized ancestor path: ids from the root down to the parent, each followed by '/'.
+     * Empty for top-level messages, so the subtree below a message is every row whose path
+     * starts with {@code path + id + "/"}.
+     */
+    @Column(columnDefinition = "text")
+    @JsonIgnore
+    private String path;
+
+    /**
+     * Number of ancestors, 0 for top-level messages
+     */
+    private Integer depth;
+
+    /**
+     * Number of direct replies, maintained by {@code MessageService.createMessage}
+     */
+    private Integer replyCount;
+
+    /**
+     * Number of messages anywhere below this one, maintained by {@code MessageService.createMessage}
+     */
+    private Integer descendantCount;
+
+    /**
+     * Path prefix shared by every descendant of this message
+     */
+    public String subtreePrefix() {
+        return path + id + "/";
+    }
+
+    /**
+     * Ids of all ancestors parsed from the path, root first
+     */
+    public List<Long> ancestorIds() {
+        List<Long> ids = new ArrayList<>();
+        int start = 0;
+        for (int end = path.indexOf('/'); end >= 0; end = path.indexOf('/', start)) {
+            ids.add(Long.parseLong(path, start, end, 10));
+            start = end + 1;
+        }
+        return ids;
+    }
 }
@@ -1,22 +1,57 @@
 package com.message.tree.backend.repository;
 
 import com.message.tree.backend.entity.Message;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
-public interface MessageRepository extends JpaRepository<Message, Long> {
-    
-    @Query("SELECT m FROM Message m JOIN FETCH m.user WHERE m.parent.id = :parentId ORDER BY m.createdAt DESC")
-    List<Message> findByParentId(@Param("parentId") Long parentId);
-    
-    @Query("SELECT m FROM Message m JOIN FETCH m.user WHERE m.parent IS NULL ORDER BY m.createdAt DESC")
-    List<Message> findByParentIsNullOrderByCreatedAtDesc();
-    
-    @Query("SELECT m FROM Message m JOIN FETCH m.user ORDER BY m.createdAt")
-    List<Message> findAllWithUser();
-    
-    @Query("SELECT DISTINCT m.parent.id FROM Message m WHERE m.parent.id IN :parentIds")
-    List<Long> findParentIdsWithChildren(@Param("parentIds") List<Long> parentIds);
+/**
+ * Query methods run read-only, so outside a write transaction they are served by the read pool.
+ * Reads select {@link MessageRow} projections rather than entities.
+ */
+@Transactional(readOnly = true)
+public interface MessageRepository extends JpaRepository<Message, Long>, MessageRepositoryCustom {
+    String SEARCH_TERM_DOCUMENTS = "searchTermDocuments";
+    String SELECT_ROW = "SELECT new com.message.tree.backend.repository.MessageRow(m.id, m.parent.id, m.content, "
+            + "m.createdAt, u.id, u.username, u.email, m.path, m.depth, m.replyCount, m.descendantCount) "
+            + "FROM Message m JOIN m.user u ";
+
+    @Query(SELECT_ROW + "ORDER BY m.createdAt")
+    List<MessageRow> findAllRows();
+
+    @Query(SELECT_ROW + "WHERE m.id = :id")
+    Optional<MessageRow> findRowById(@Param("id") Long id);
+
+    @Query(SELECT_ROW + "WHERE m.id IN :ids")
+    List<MessageRow> findRowsByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Number of messages containing a search term, as the full-text index spells it. Counting
+     * walks every match of the term, so counts are cached and may lag behind new messages.
+     */
+    @Cacheable(cacheNames = SEARCH_TERM_DOCUMENTS)
+    @Query(value = "SELECT COALESCE((SELECT doc FROM message_fts_vocab WHERE term = :term), 0)", nativeQuery = true)
+    long countMessagesWithTerm(@Param("term") String term);
+
+    /**
+     * Range scan over the path index: every message whose path lies in [from, to)
+     */
+    @Query(SELECT_ROW + "WHERE m.path >= :from AND m.path < :to AND m.depth <= :maxDepth ORDER BY m.depth, m.createdAt, m.id")
+    List<MessageRow> findSubtreeRows(@Param("from") String from, @Param("to") String to, @Param("maxDepth") int maxDepth);
+
+    /**
+     * Count a new reply on every ancestor in one statement
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Message m SET m.descendantCount = m.descendantCount + 1, " +
+            "m.replyCount = m.replyCount + CASE WHEN m.id = :parentId THEN 1 ELSE 0 END " +
+            "WHERE m.id IN :ancestorIds")
+    int incrementReplyCounters(@Param("parentId") Long parentId, @Param("ancestorIds") List<Long> ancestorIds);
 }
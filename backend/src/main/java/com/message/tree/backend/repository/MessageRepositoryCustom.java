@@ -0,0 +1,23 @@
+package com.message.tree.backend.repository;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queries that cannot be expressed in JPQL
+ */
+public interface MessageRepositoryCustom {
+
+    /**
+     * The message and all of its ancestors with their users, root first, in a single statement
+     */
+    List<MessageRow> findPathToRoot(Long id);
+
+    /**
+     * Content of the {@code limit} newest messages up to {@code maxId} matching a full-text
+     * query, newest first
+     *
+     * @param match FTS5 query expression
+     */
+    Map<Long, String> findSearchCandidates(String match, long maxId, int limit);
+}
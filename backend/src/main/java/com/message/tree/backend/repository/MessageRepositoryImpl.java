@@ -0,0 +1,83 @@
+package com.message.tree.backend.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.Session;
+import org.hibernate.type.StandardBasicTypes;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Transactional(readOnly = true)
+public class MessageRepositoryImpl implements MessageRepositoryCustom {
+    // SQLite walks the parent links itself, one primary key lookup per level
+    private static final String PATH_TO_ROOT_SQL = """
+            WITH RECURSIVE chain(id) AS (
+                SELECT :id
+                UNION ALL
+                SELECT m.parent_id FROM message m JOIN chain c ON m.id = c.id WHERE m.parent_id IS NOT NULL
+            )
+            SELECT m.id, m.parent_id, m.content, m.created_at, u.id AS user_id, u.username, u.email,
+                   m.path, m.depth, m.reply_count, m.descendant_count
+            FROM chain c
+            JOIN message m ON m.id = c.id
+            JOIN user u ON u.id = m.user_id
+            ORDER BY m.depth
+            """;
+    // FTS5 walks a term's matches by rowid, so the newest ones come straight off the index
+    private static final String SEARCH_CANDIDATES_SQL = """
+            SELECT rowid, content
+            FROM message_fts
+            WHERE message_fts MATCH :match AND rowid <= :maxId
+            ORDER BY rowid DESC
+            LIMIT :limit
+            """;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * Columns are typed explicitly so they are read the same way as mapped attributes
+     */
+    @Override
+    public List<MessageRow> findPathToRoot(Long id) {
+        List<Object[]> rows = entityManager.unwrap(Session.class)
+                .createNativeQuery(PATH_TO_ROOT_SQL, Object[].class)
+                .addScalar("id", StandardBasicTypes.LONG)
+                .addScalar("parent_id", StandardBasicTypes.LONG)
+                .addScalar("content", StandardBasicTypes.STRING)
+                .addScalar("created_at", StandardBasicTypes.LOCAL_DATE_TIME)
+                .addScalar("user_id", StandardBasicTypes.LONG)
+                .addScalar("username", StandardBasicTypes.STRING)
+                .addScalar("email", StandardBasicTypes.STRING)
+                .addScalar("path", StandardBasicTypes.STRING)
+                .addScalar("depth", StandardBasicTypes.INTEGER)
+                .addScalar("reply_count", StandardBasicTypes.INTEGER)
+                .addScalar("descendant_count", StandardBasicTypes.INTEGER)
+                .setParameter("id", id)
+                .getResultList();
+        return rows.stream()
+                .map(row -> new MessageRow((Long) row[0], (Long) row[1], (String) row[2], (LocalDateTime) row[3],
+                        (Long) row[4], (String) row[5], (String) row[6], (String) row[7],
+                        (Integer) row[8], (Integer) row[9], (Integer) row[10]))
+                .toList();
+    }
+
+    @Override
+    public Map<Long, String> findSearchCandidates(String match, long maxId, int limit) {
+        List<?> rows = entityManager.createNativeQuery(SEARCH_CANDIDATES_SQL, Object[].class)
+                .setParameter("match", match)
+                .setParameter("maxId", maxId)
+                .setParameter("limit", limit)
+                .getResultList();
+        Map<Long, String> candidates = new LinkedHashMap<>();
+        for (Object row : rows) {
+            Object[] columns = (Object[]) row;
+            candidates.put(((Number) columns[0]).longValue(), (String) columns[1]);
+        }
+        return candidates;
+    }
+}
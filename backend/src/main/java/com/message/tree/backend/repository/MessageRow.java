@@ -0,0 +1,48 @@
+package com.message.tree.backend.repository;
+
+import com.message.tree.backend.entity.Message;
+
+import java.time.LocalDateTime;
+
+/**
+ * Read-only projection of a message with its author's public fields. Queries select exactly
+ * these columns into it, so reads skip entity hydration, the persistence context's snapshots
+ * and proxies, and never touch the author's password.
+ */
+public record MessageRow(Long id, Long parentId, String content, LocalDateTime createdAt,
+                         Long userId, String username, String email,
+                         String path, Integer depth, Integer replyCount, Integer descendantCount) {
+
+    /**
+     * Start of the materialized path of every message below this one
+     */
+    public String subtreePrefix() {
+        return path + id + "/";
+    }
+
+    /**
+     * Id of the top-level message of this thread, this message's own id if it is one
+     */
+    public Long rootId() {
+        int end = path.indexOf('/');
+        return end < 0 ? id : Long.parseLong(path, 0, end, 10);
+    }
+
+    /**
+     * The same fields read from a message that is already loaded, e.g. a freshly saved one
+     */
+    public static MessageRow of(Message message) {
+        return new MessageRow(
+                message.getId(),
+                message.getParent() != null ? message.getParent().getId() : null,
+                message.getContent(),
+                message.getCreatedAt(),
+                message.getUser().getId(),
+                message.getUser().getUsername(),
+                message.getUser().getEmail(),
+                message.getPath(),
+                message.getDepth(),
+                message.getReplyCount(),
+                message.getDescendantCount());
+    }
+}
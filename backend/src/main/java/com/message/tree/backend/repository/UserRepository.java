@@ -1,11 +1,29 @@
 package com.message.tree.backend.repository;
 
 import com.message.tree.backend.entity.User;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.transaction.annotation.Transactional;
 import java.util.Optional;
- 
+
+/**
+ * Lookups by username and by login name are cached, they run on every authenticated request
+ * and users hardly ever change. Absent users are not cached, and any save clears both caches.
+ */
+@Transactional(readOnly = true)
 public interface UserRepository extends JpaRepository<User, Long> {
+    String USERS_BY_USERNAME = "usersByUsername";
+    String USERS_BY_LOGIN = "usersByLogin";
+
+    @Cacheable(cacheNames = USERS_BY_USERNAME, unless = "#result == null")
     Optional<User> findByUsername(String username);
     Optional<User> findByEmail(String email);
+    @Cacheable(cacheNames = USERS_BY_LOGIN, unless = "#result == null")
     Optional<User> findByUsernameOrEmail(String username, String email);
-} 
\ No newline at end of file
+
+    @Override
+    @Transactional
+    @CacheEvict(cacheNames = {USERS_BY_USERNAME, USERS_BY_LOGIN}, allEntries = true)
+    <S extends User> S save(S user);
+}
@@ -0,0 +1,10 @@
+package com.message.tree.backend.service;
+
+import com.message.tree.backend.entity.Message;
+
+/**
+ * Published by {@link MessageService#createMessage}; listeners bound to the commit phase only
+ * see messages that were actually persisted
+ */
+public record MessageCreatedEvent(Message message) {
+}
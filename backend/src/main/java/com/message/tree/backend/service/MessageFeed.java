@@ -0,0 +1,273 @@
+package com.message.tree.backend.service;
+
+import com.message.tree.backend.dto.MessageDto;
+import com.message.tree.backend.dto.UserInfo;
+import com.message.tree.backend.entity.Message;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Live feed of newly created messages for server-sent event subscribers.
+ * <p>
+ * Publishing never does I/O: each event is appended to a bounded replay buffer and offered to
+ * every subscriber's own bounded queue. A subscriber's queue is drained on a virtual thread
+ * only while it has something to send, so idle connections hold no thread at all and a slow
+ * client only ever blocks its own sender. A subscriber that falls too far behind is
+ * disconnected and catches up from the replay buffer when it reconnects with Last-Event-ID.
+ */
+@Slf4j
+@Component
+public class MessageFeed {
+    private static final FeedEvent HEARTBEAT = new FeedEvent(0, null, List.of());
+
+    private final int replaySize;
+    private final int queueSize;
+    private final long timeoutMillis;
+    private final Deque<FeedEvent> replay = new ArrayDeque<>();
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+    // A lock rather than synchronized: request threads may be virtual and must not pin while waiting
+    private final Lock lock = new ReentrantLock();
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("message-feed-heartbeat").daemon().factory());
+    // Ids restart with the process, the epoch keeps a Last-Event-ID from an earlier run from matching
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private long lastId;
+
+    public MessageFeed(@Value("${app.messages.stream.replay-size:10000}") int replaySize,
+                       @Value("${app.messages.stream.queue-size:1024}") int queueSize,
+                       @Value("${app.messages.stream.timeout:30m}") Duration timeout,
+                       @Value("${app.messages.stream.heartbeat:20s}") Duration heartbeat,
+                       MeterRegistry meterRegistry) {
+        this.replaySize = replaySize;
+        this.queueSize = queueSize;
+        this.timeoutMillis = timeout.toMillis();
+        Gauge.builder("messages.feed.subscribers", subscribers, Set::size).register(meterRegistry);
+        heartbeats.scheduleAtFixedRate(this::heartbeat, heartbeat.toMillis(), heartbeat.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs after the tree index has taken the message, so a client reacting to the event
+     * already finds it in every read endpoint
+     */
+    @TransactionalEventListener
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public void onMessageCreated(MessageCreatedEvent event) {
+        publish(event.message());
+    }
+
+    public void publish(Message message) {
+        lock.lock();
+        try {
+            FeedEvent event = new FeedEvent(++lastId, toDto(message), message.ancestorIds());
+            replay.addLast(event);
+            if (replay.size() > replaySize) {
+                replay.removeFirst();
+            }
+            for (Subscriber subscriber : subscribers) {
+                subscriber.offer(event);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Subscribe to messages created from now on, only those below {@code subtreeId} when given.
+     * With a {@code lastEventId} everything after it is replayed first; if that is no longer
+     * possible, or the id comes from an earlier run, a single "reset" event tells the client to
+     * reload instead.
+     */
+    public SseEmitter subscribe(Long subtreeId, String lastEventId) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        Subscriber subscriber = new Subscriber(emitter, subtreeId);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(error -> subscribers.remove(subscriber));
+        // Sent before the emitter is returned, these are buffered and written by the request
+        // thread itself, which commits the response before any sender thread can touch it
+        lock.lock();
+        try {
+            emitter.send(SseEmitter.event().comment("connected"));
+            if (lastEventId != null) {
+                replay(subscriber, lastEventId);
+            }
+            subscribers.add(subscriber);
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+        } finally {
+            lock.unlock();
+        }
+        return emitter;
+    }
+
+    private void replay(Subscriber subscriber, String lastEventId) throws IOException {
+        long seen = sequence(lastEventId);
+        long oldest = replay.isEmpty() ? lastId + 1 : replay.getFirst().id();
+        // Replaying more than a queue holds would be as bad as falling behind, so reload instead
+        if (seen < oldest - 1 || seen > lastId || lastId - seen > queueSize) {
+            subscriber.emitter.send(SseEmitter.event().id(eventId(lastId)).name("reset").data(eventId(lastId)));
+            return;
+        }
+        for (FeedEvent event : replay) {
+            if (event.id() > seen && subscriber.wants(event)) {
+                subscriber.emitter.send(toSseEvent(event));
+            }
+        }
+    }
+
+    private String eventId(long id) {
+        return epoch + "." + id;
+    }
+
+    /**
+     * Sequence number of an event id of this run, -1 for anything else
+     */
+    private long sequence(String eventId) {
+        String prefix = epoch + ".";
+        if (!eventId.startsWith(prefix)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(eventId.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        heartbeats.shutdownNow();
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+        senders.shutdownNow();
+    }
+
+    private void heartbeat() {
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.queue.isEmpty()) {
+                subscriber.enqueue(HEARTBEAT);
+            }
+        }
+    }
+
+    private SseEmitter.SseEventBuilder toSseEvent(FeedEvent event) {
+        return SseEmitter.event()
+                .id(eventId(event.id()))
+                .name("message")
+                .data(event.message(), MediaType.APPLICATION_JSON);
+    }
+
+    private static MessageDto toDto(Message message) {
+        UserInfo userInfo = UserInfo.builder()
+                .username(message.getUser().getUsername())
+                .email(message.getUser().getEmail())
+                .build();
+        return new MessageDto(
+                message.getId(),
+                message.getParent() != null ? message.getParent().getId() : null,
+                message.getContent(),
+                message.getCreatedAt(),
+                userInfo,
+                null,
+                false,
+                0,
+                0
+        );
+    }
+
+    private record FeedEvent(long id, MessageDto message, List<Long> ancestorIds) {
+    }
+
+    private final class Subscriber {
+        private final SseEmitter emitter;
+        private final Long subtreeId;
+        private final Queue<FeedEvent> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean sending = new AtomicBoolean();
+        private volatile boolean closed;
+
+        private Subscriber(SseEmitter emitter, Long subtreeId) {
+            this.emitter = emitter;
+            this.subtreeId = subtreeId;
+        }
+
+        private boolean wants(FeedEvent event) {
+            return subtreeId == null || event.ancestorIds().contains(subtreeId);
+        }
+
+        private void offer(FeedEvent event) {
+            if (wants(event)) {
+                enqueue(event);
+            }
+        }
+
+        private void enqueue(FeedEvent event) {
+            if (closed) {
+                return;
+            }
+            if (size.incrementAndGet() > queueSize) {
+                log.debug("Disconnecting a feed subscriber that is {} events behind", queueSize);
+                close();
+                return;
+            }
+            queue.add(event);
+            if (sending.compareAndSet(false, true)) {
+                senders.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            do {
+                try {
+                    for (FeedEvent event = queue.poll(); event != null && !closed; event = queue.poll()) {
+                        size.decrementAndGet();
+                        if (event == HEARTBEAT) {
+                            emitter.send(SseEmitter.event().comment("heartbeat"));
+                        } else {
+                            emitter.send(toSseEvent(event));
+                        }
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    // The client went away, the container completes the request itself
+                    close();
+                }
+                sending.set(false);
+                // An event may have arrived after the last poll but before the flag was cleared
+            } while (!closed && !queue.isEmpty() && sending.compareAndSet(false, true));
+        }
+
+        private void close() {
+            closed = true;
+            subscribers.remove(this);
+            queue.clear();
+            emitter.complete();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.message.tree.backend.service;
+
+import com.message.tree.backend.dto.ImportMessageRequest;
+import com.message.tree.backend.entity.Message;
+import com.message.tree.backend.entity.User;
+import com.message.tree.backend.repository.MessageRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+/**
+ * Inserts whole batches of messages with JDBC batching in a single transaction, keeping the
+ * materialized paths, reply counters and tree index consistent with {@link MessageService#createMessage}.
+ * Imports run on the {@link MessageWriter} thread like every other write.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MessageImportService {
+    private static final int BATCH_SIZE = 1000;
+    private static final String INSERT_SQL = "INSERT INTO message "
+            + "(id, content, created_at, depth, descendant_count, parent_id, path, reply_count, user_id) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final MessageRepository messageRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final MessageWriter messageWriter;
+
+    /**
+     * Import messages authored by {@code user}; every {@code parentRef} must name an earlier
+     * message of the same batch
+     *
+     * @return client reference to assigned id, in request order
+     */
+    public Map<String, Long> importMessages(User user, List<ImportMessageRequest> requests) {
+        return messageWriter.execute(() -> insertMessages(user, requests));
+    }
+
+    private Map<String, Long> insertMessages(User user, List<ImportMessageRequest> requests) {
+        Map<String, Integer> positions = new HashMap<>();
+        Set<Long> existingParentIds = new HashSet<>();
+        for (int i = 0; i < requests.size(); i++) {
+            ImportMessageRequest request = requests.get(i);
+            if (request.getParentRef() != null && request.getParentId() != null) {
+                throw new IllegalArgumentException("Message " + request.getRef() + " has both parentRef and parentId");
+            }
+            if (request.getParentRef() != null && !positions.containsKey(request.getParentRef())) {
+                throw new IllegalArgumentException("Message " + request.getRef()
+                        + " references unknown or later parentRef " + request.getParentRef());
+            }
+            if (request.getParentId() != null) {
+                existingParentIds.add(request.getParentId());
+            }
+            if (positions.putIfAbsent(request.getRef(), i) != null) {
+                throw new IllegalArgumentException("Duplicate ref " + request.getRef());
+            }
+        }
+
+        Map<Long, Message> existingParents = new HashMap<>();
+        for (Message parent : messageRepository.findAllById(existingParentIds)) {
+            existingParents.put(parent.getId(), parent);
+        }
+        for (Long parentId : existingParentIds) {
+            if (!existingParents.containsKey(parentId)) {
+                throw new IllegalArgumentException("Parent message " + parentId + " does not exist");
+            }
+        }
+
+        // A no-op write takes SQLite's write lock, so not even another process can claim ids until commit
+        jdbcTemplate.update("UPDATE message SET id = id WHERE 0");
+        Long maxId = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM message", Long.class);
+        long firstId = (maxId != null ? maxId : 0) + 1;
+
+        int size = requests.size();
+        int[] parents = new int[size];
+        String[] paths = new String[size];
+        int[] depths = new int[size];
+        int[] replies = new int[size];
+        int[] descendants = new int[size];
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < size; i++) {
+            ImportMessageRequest request = requests.get(i);
+            if (request.getParentRef() != null) {
+                int parent = positions.get(request.getParentRef());
+                parents[i] = parent;
+                paths[i] = paths[parent] + (firstId + parent) + "/";
+                depths[i] = depths[parent] + 1;
+                replies[parent]++;
+            } else {
+                parents[i] = -1;
+                Message parent = request.getParentId() != null ? existingParents.get(request.getParentId()) : null;
+                paths[i] = parent != null ? parent.subtreePrefix() : "";
+                depths[i] = parent != null ? parent.getDepth() + 1 : 0;
+            }
+        }
+        // Parents always precede their replies, so a backwards pass sees complete subtrees
+        for (int i = size - 1; i >= 0; i--) {
+            if (parents[i] >= 0) {
+                descendants[parents[i]] += descendants[i] + 1;
+            }
+        }
+
+        List<Object[]> rows = new ArrayList<>(size);
+        LocalDateTime[] createdAts = new LocalDateTime[size];
+        for (int i = 0; i < size; i++) {
+            ImportMessageRequest request = requests.get(i);
+            Long parentId = parents[i] >= 0 ? Long.valueOf(firstId + parents[i]) : request.getParentId();
+            // Stored with millisecond precision, like messages created one by one
+            createdAts[i] = (request.getCreatedAt() != null ? request.getCreatedAt() : now).truncatedTo(ChronoUnit.MILLIS);
+            rows.add(new Object[]{firstId + i, request.getContent(), Timestamp.valueOf(createdAts[i]), depths[i],
+                    descendants[i], parentId, paths[i], replies[i], user.getId()});
+        }
+        int[] types = {Types.BIGINT, Types.VARCHAR, Types.TIMESTAMP, Types.INTEGER,
+                Types.INTEGER, Types.BIGINT, Types.VARCHAR, Types.INTEGER, Types.BIGINT};
+        for (int i = 0; i < size; i += BATCH_SIZE) {
+            jdbcTemplate.batchUpdate(INSERT_SQL, rows.subList(i, Math.min(i + BATCH_SIZE, size)), types);
+        }
+
+        updateExistingAncestors(requests, existingParents, descendants);
+
+        Map<String, Long> ids = new LinkedHashMap<>();
+        Map<Long, Message> imported = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            ImportMessageRequest request = requests.get(i);
+            long id = firstId + i;
+            ids.put(request.getRef(), id);
+            Message message = toMessage(id, request, createdAts[i], user,
+                    parents[i] >= 0 ? imported.get(firstId + parents[i]) : existingParents.get(request.getParentId()),
+                    paths[i], depths[i]);
+            imported.put(id, message);
+            eventPublisher.publishEvent(new MessageCreatedEvent(message));
+        }
+        log.info("Imported {} messages for user {}", size, user.getUsername());
+        return ids;
+    }
+
+    /**
+     * Add each imported subtree hanging off an existing message to that message's counters
+     * and to the descendant counters of all of its ancestors
+     */
+    private void updateExistingAncestors(List<ImportMessageRequest> requests, Map<Long, Message> existingParents,
+                                         int[] descendants) {
+        Map<Long, int[]> increments = new HashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            Message parent = existingParents.get(requests.get(i).getParentId());
+            if (requests.get(i).getParentRef() != null || parent == null) {
+                continue;
+            }
+            int added = descendants[i] + 1;
+            int[] own = increments.computeIfAbsent(parent.getId(), id -> new int[2]);
+            own[0]++;
+            own[1] += added;
+            for (Long ancestorId : parent.ancestorIds()) {
+                increments.computeIfAbsent(ancestorId, id -> new int[2])[1] += added;
+            }
+        }
+        List<Object[]> updates = new ArrayList<>(increments.size());
+        increments.forEach((id, delta) -> updates.add(new Object[]{delta[0], delta[1], id}));
+        jdbcTemplate.batchUpdate(
+                "UPDATE message SET reply_count = reply_count + ?, descendant_count = descendant_count + ? WHERE id = ?",
+                updates);
+    }
+
+    /**
+     * Detached copy of an inserted row for the {@link MessageCreatedEvent} listeners; counters
+     * start at zero like a freshly created message, listeners count the replies as they arrive
+     */
+    private static Message toMessage(long id, ImportMessageRequest request, LocalDateTime createdAt, User user,
+                                     Message parent, String path, int depth) {
+        Message message = new Message();
+        message.setId(id);
+        message.setContent(request.getContent());
+        message.setCreatedAt(createdAt);
+        message.setUser(user);
+        message.setParent(parent);
+        message.setPath(path);
+        message.setDepth(depth);
+        message.setReplyCount(0);
+        message.setDescendantCount(0);
+        return message;
+    }
+}
@@ -0,0 +1,62 @@
+package com.message.tree.backend.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.message.tree.backend.dto.MessageDto;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Renders the JSON of one message in two pieces around its replies, byte for byte as the
+ * application's ObjectMapper writes a {@link MessageDto}. The head, from the opening brace to
+ * the start of the children array, depends only on the message itself and never changes; the
+ * tail closes the array and carries the reply counters.
+ */
+@Component
+@RequiredArgsConstructor
+public class MessageJsonFragments {
+    private static final byte[] CHILDREN = "\"children\":[".getBytes(StandardCharsets.UTF_8);
+
+    private final ObjectMapper objectMapper;
+
+    public byte[] head(MessageDto message) {
+        byte[] json = write(message);
+        return Arrays.copyOf(json, childrenStart(json));
+    }
+
+    public byte[] tail(boolean hasChildren, int replyCount, int descendantCount) {
+        MessageDto counters = new MessageDto();
+        counters.setChildren(List.of());
+        counters.setHasChildren(hasChildren);
+        counters.setReplyCount(replyCount);
+        counters.setDescendantCount(descendantCount);
+        byte[] json = write(counters);
+        return Arrays.copyOfRange(json, childrenStart(json), json.length);
+    }
+
+    private byte[] write(MessageDto message) {
+        try {
+            return objectMapper.writeValueAsBytes(message);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Just past the children field. Every string comes before it and has its quotes escaped,
+     * so the last match is the field itself.
+     */
+    private static int childrenStart(byte[] json) {
+        for (int i = json.length - CHILDREN.length; i >= 0; i--) {
+            if (Arrays.equals(json, i, i + CHILDREN.length, CHILDREN, 0, CHILDREN.length)) {
+                return i + CHILDREN.length;
+            }
+        }
+        throw new IllegalStateException("No children field in " + new String(json, StandardCharsets.UTF_8));
+    }
+}
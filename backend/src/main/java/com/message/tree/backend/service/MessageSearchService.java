@@ -0,0 +1,191 @@
+package com.message.tree.backend.service;
+
+import com.message.tree.backend.dto.MessageDto;
+import com.message.tree.backend.dto.SearchHit;
+import com.message.tree.backend.dto.SearchPage;
+import com.message.tree.backend.dto.UserInfo;
+import com.message.tree.backend.repository.MessageRepository;
+import com.message.tree.backend.repository.MessageRow;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Full-text search over message content, backed by the {@code message_fts} FTS5 index.
+ * <p>
+ * A message matches when it contains every word of the query. Only the newest matches, up to
+ * {@code app.messages.search.candidates}, are ranked: fetching them is a short walk of the
+ * index whatever the words are, while SQLite's own bm25() first counts every match of every
+ * word, which takes tens of milliseconds for a common word on a few million rows. Older
+ * matches beyond that ceiling are never returned, however well they would score.
+ * <p>
+ * Candidates are ranked by BM25 in memory. Each word is weighted by its inverse document
+ * frequency over all messages, in Lucene's always-positive form, so a rare word counts for more
+ * than a common one. Document frequencies come from the cached
+ * {@link MessageRepository#countMessagesWithTerm}; the average message length is taken over the
+ * candidates.
+ * <p>
+ * The cursor remembers the newest candidate of the first page, so later pages rank the same
+ * candidates even when new messages match meanwhile.
+ */
+@Service
+public class MessageSearchService {
+    private static final int MAX_WORDS = 16;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    // Everything the FTS tokenizer does not index separates words, so it also strips query syntax
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}\\p{M}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private final MessageRepository messageRepository;
+    private final MessageTreeIndex messageTreeIndex;
+    private final int maxCandidates;
+
+    public MessageSearchService(MessageRepository messageRepository, MessageTreeIndex messageTreeIndex,
+                                @Value("${app.messages.search.candidates:1000}") int maxCandidates) {
+        this.messageRepository = messageRepository;
+        this.messageTreeIndex = messageTreeIndex;
+        this.maxCandidates = maxCandidates;
+    }
+
+    /**
+     * One page of messages containing every word of {@code query}, best match first
+     *
+     * @param after cursor returned with the previous page, or null for the first page
+     */
+    @Transactional(readOnly = true)
+    public SearchPage search(String query, String after, int limit) {
+        List<String> words = NON_WORD.splitAsStream(query)
+                .filter(word -> !word.isEmpty())
+                .distinct()
+                .limit(MAX_WORDS)
+                .toList();
+        Cursor cursor = after != null ? decodeCursor(after) : new Cursor(0, Long.MAX_VALUE);
+        if (words.isEmpty()) {
+            return new SearchPage(new ArrayList<>(), null);
+        }
+        // Quoted, so nothing the user typed is read as FTS5 syntax
+        String match = words.stream().map(word -> '"' + word + '"').collect(Collectors.joining(" "));
+        Map<Long, String> candidates = messageRepository.findSearchCandidates(match, cursor.maxId(), maxCandidates);
+        if (candidates.isEmpty()) {
+            return new SearchPage(new ArrayList<>(), null);
+        }
+        long maxId = candidates.keySet().iterator().next();
+        List<Long> ranked = rank(candidates, words);
+
+        int offset = cursor.offset();
+
+        List<Long> ids = ranked.subList(Math.min(offset, ranked.size()), Math.min(offset + limit, ranked.size()));
+        Map<Long, MessageRow> rows = messageRepository.findRowsByIdIn(ids).stream()
+                .collect(Collectors.toMap(MessageRow::id, Function.identity()));
+        List<SearchHit> hits = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            MessageRow row = rows.get(id);
+            if (row != null) {
+                hits.add(new SearchHit(toDto(row), row.rootId()));
+            }
+        }
+        String next = offset + limit < ranked.size() ? encodeCursor(new Cursor(offset + limit, maxId)) : null;
+        return new SearchPage(hits, next);
+    }
+
+    /**
+     * Candidate ids by descending BM25 score, newer first on ties
+     */
+    private List<Long> rank(Map<Long, String> candidates, List<String> words) {
+        List<String> terms = words.stream().map(MessageSearchService::fold).distinct().toList();
+        double messages = Math.max(messageTreeIndex.size(), candidates.size());
+        double[] idfs = new double[terms.size()];
+        for (int i = 0; i < idfs.length; i++) {
+            // A count cached before its messages were indexed can lag behind the candidates
+            double containing = Math.min(messages, Math.max(messageRepository.countMessagesWithTerm(terms.get(i)), 1));
+            idfs[i] = Math.log(1 + (messages - containing + 0.5) / (containing + 0.5));
+        }
+        Map<Long, String[]> tokens = new HashMap<>(candidates.size() * 2);
+        long totalLength = 0;
+        for (Map.Entry<Long, String> candidate : candidates.entrySet()) {
+            String[] messageTokens = NON_WORD.split(fold(candidate.getValue()));
+            tokens.put(candidate.getKey(), messageTokens);
+            totalLength += messageTokens.length;
+        }
+        double averageLength = Math.max(1, (double) totalLength / Math.max(1, candidates.size()));
+
+        Map<Long, Double> scores = new HashMap<>(candidates.size() * 2);
+        tokens.forEach((id, messageTokens) -> {
+            double lengthNorm = K1 * (1 - B + B * messageTokens.length / averageLength);
+            double score = 0;
+            for (int i = 0; i < idfs.length; i++) {
+                int frequency = 0;
+                for (String token : messageTokens) {
+                    if (token.equals(terms.get(i))) {
+                        frequency++;
+                    }
+                }
+                score += idfs[i] * frequency * (K1 + 1) / (frequency + lengthNorm);
+            }
+            scores.put(id, score);
+        });
+        List<Long> ranked = new ArrayList<>(scores.keySet());
+        ranked.sort(Comparator.comparing((Long id) -> scores.get(id)).reversed()
+                .thenComparing(Comparator.reverseOrder()));
+        return ranked;
+    }
+
+    /**
+     * Same folding as the FTS tokenizer: case-insensitive, diacritics removed
+     */
+    private static String fold(String text) {
+        return MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFKD)).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    private String encodeCursor(Cursor cursor) {
+        String value = cursor.offset() + "|" + cursor.maxId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Cursor decodeCursor(String cursor) {
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = value.indexOf('|');
+            int offset = Integer.parseInt(value.substring(0, separator));
+            long maxId = Long.parseLong(value.substring(separator + 1));
+            if (offset >= 0 && offset < maxCandidates) {
+                return new Cursor(offset, maxId);
+            }
+        } catch (RuntimeException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid cursor: " + cursor);
+    }
+
+    /**
+     * Position in the ranking of the candidates up to {@code maxId}
+     */
+    private record Cursor(int offset, long maxId) {
+    }
+
+    private static MessageDto toDto(MessageRow row) {
+        UserInfo userInfo = UserInfo.builder()
+                .username(row.username())
+                .email(row.email())
+                .build();
+        return new MessageDto(
+                row.id(),
+                row.parentId(),
+                row.content(),
+                row.createdAt(),
+                userInfo,
+                null,
+                row.replyCount() > 0,
+                row.replyCount(),
+                row.descendantCount()
+        );
+    }
+}
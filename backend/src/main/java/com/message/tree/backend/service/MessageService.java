@@ -1,155 +1,256 @@
 package com.message.tree.backend.service;
 
+import com.message.tree.backend.dto.FlatTree;
 import com.message.tree.backend.dto.MessageDto;
+import com.message.tree.backend.dto.MessagePage;
+import com.message.tree.backend.dto.PrerenderedTree;
 import com.message.tree.backend.dto.UserInfo;
 import com.message.tree.backend.entity.Message;
 import com.message.tree.backend.entity.User;
 import com.message.tree.backend.repository.MessageRepository;
+import com.message.tree.backend.repository.MessageRow;
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 
 @Service
 @RequiredArgsConstructor
 public class MessageService {
     private final MessageRepository messageRepository;
+    private final MessageTreeIndex messageTreeIndex;
+    private final ApplicationEventPublisher eventPublisher;
+    private final MessageWriter messageWriter;
+    private final RequestCoalescer requestCoalescer;
+    private final MessageJsonFragments messageJsonFragments;
 
+    /**
+     * Create a message on the writer thread and wait until its group has committed
+     */
     public Message createMessage(String content, User user, Long parentId) {
+        return messageWriter.execute(() -> insertMessage(content, user, parentId));
+    }
+
+    /**
+     * Runs inside the writer's transaction and may be retried, so it must not keep state between calls
+     */
+    private Message insertMessage(String content, User user, Long parentId) {
         Message message = new Message();
         message.setContent(content);
         message.setUser(user);
-        message.setCreatedAt(LocalDateTime.now());
-        
-        if (parentId != null) {
-            Optional<Message> parent = messageRepository.findById(parentId);
-            parent.ifPresent(message::setParent);
+        // SQLite keeps milliseconds, the index must hold the value every later read returns
+        message.setCreatedAt(LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS));
+
+        Message parent = parentId != null ? messageRepository.findById(parentId).orElse(null) : null;
+        message.setParent(parent);
+        message.setPath(parent != null ? parent.subtreePrefix() : "");
+        message.setDepth(parent != null ? parent.getDepth() + 1 : 0);
+        message.setReplyCount(0);
+        message.setDescendantCount(0);
+
+        Message saved = messageRepository.save(message);
+        if (parent != null) {
+            messageRepository.incrementReplyCounters(parent.getId(), saved.ancestorIds());
         }
-        
-        return messageRepository.save(message);
+        eventPublisher.publishEvent(new MessageCreatedEvent(saved));
+        return saved;
     }
 
     /**
      * Get all top-level messages (those without a parent)
      */
     public List<MessageDto> getAllTopLevelMessages() {
-        List<Message> messages = messageRepository.findByParentIsNullOrderByCreatedAtDesc();
-        return buildMessageDtos(messages);
+        return messageTreeIndex.topLevel();
     }
 
     public List<MessageDto> getChildrenByParentId(Long parentId) {
-        List<Message> children = messageRepository.findByParentId(parentId);
-        return buildMessageDtos(children);
+        return messageTreeIndex.children(parentId);
+    }
+
+    /**
+     * Get the direct replies of several messages at once, see {@link MessageTreeIndex#children(Collection)}
+     */
+    public Map<Long, List<MessageDto>> getChildrenByParentIds(Collection<Long> parentIds) {
+        return messageTreeIndex.children(parentIds);
+    }
+
+    /**
+     * Get one page of top-level messages, newest first
+     */
+    public MessagePage getTopLevelMessagesPage(String after, int limit) {
+        return messageTreeIndex.topLevelPage(after, limit);
+    }
+
+    /**
+     * Get one page of direct replies, newest first
+     */
+    public MessagePage getChildrenPage(Long parentId, String after, int limit) {
+        return messageTreeIndex.childrenPage(parentId, after, limit);
     }
 
     /**
-     * Get all messages with user information and build a tree structure
+     * Get one page of {@code limit} threads, newest first, each with replies down to {@code depth} levels
+     * and at most {@code maxChildren} replies per message, see {@link MessageTreeIndex#boundedTree}
+     */
+    public MessagePage getBoundedTree(String after, int limit, int depth, int maxChildren) {
+        return messageTreeIndex.boundedTree(after, limit, depth, maxChildren);
+    }
+
+    /**
+     * Get all messages with user information as a tree structure; concurrent callers share one copy
      */
     public List<MessageDto> getAllMessagesWithTree() {
-        // Get all messages with user information
-        List<Message> allMessages = messageRepository.findAllWithUser();
+        return requestCoalescer.execute("tree", messageTreeIndex::tree, messageTreeIndex.versionTag());
+    }
 
-        // Extract all message IDs for batch query
-        List<Long> allMessageIds = allMessages.stream()
-                .map(Message::getId)
-                .toList();
+    /**
+     * Same as {@link #getAllMessagesWithTree()}, written as JSON from the pre-rendered threads
+     * of {@link MessageTreeIndex#treeJson}
+     */
+    public PrerenderedTree getPrerenderedTree() {
+        return new PrerenderedTree(() -> messageTreeIndex.treeJson(messageJsonFragments), this::getAllMessagesWithTree);
+    }
 
-        // Batch query to find which messages have children
-        List<Long> parentIdsWithChildren = messageRepository.findParentIdsWithChildren(allMessageIds);
-        Set<Long> hasChildrenSet = new java.util.HashSet<>(parentIdsWithChildren);
-
-        Map<Long, MessageDto> messageMap = new HashMap<>();
-        
-        // Create all MessageDto objects with batch-determined hasChildren flag
-        for (Message message : allMessages) {
-            UserInfo userInfo = UserInfo.builder()
-                    .username(message.getUser().getUsername())
-                    .email(message.getUser().getEmail())
-                    .build();
-
-            boolean hasChildren = hasChildrenSet.contains(message.getId());
-
-            MessageDto messageDto = new MessageDto(
-                    message.getId(),
-                    message.getContent(),
-                    message.getCreatedAt(),
-                    userInfo,
-                    new ArrayList<>(),
-                    hasChildren
-            );
-            
-            messageMap.put(message.getId(), messageDto);
-        }
+    /**
+     * Get a message and its replies down to {@code maxDepth} levels below it (all levels when
+     * null), using one range query over the materialized path
+     */
+    @Transactional(readOnly = true)
+    public Optional<MessageDto> getSubtree(Long id, Integer maxDepth) {
+        return requestCoalescer.execute("subtree", () -> buildSubtree(id, maxDepth),
+                id, maxDepth, messageTreeIndex.versionTag(id));
+    }
 
-        List<MessageDto> topLevelMessages = new ArrayList<>();
-        
-        for (Message message : allMessages) {
-            MessageDto currentDto = messageMap.get(message.getId());
-            
-            if (message.getParent() == null) {
-                topLevelMessages.add(currentDto);
-            } else {
-                MessageDto parentDto = messageMap.get(message.getParent().getId());
-                if (parentDto != null) {
-                    parentDto.getChildren().add(currentDto);
-                }
-            }
+    private Optional<MessageDto> buildSubtree(Long id, Integer maxDepth) {
+        List<MessageRow> subtree = loadSubtree(id, maxDepth);
+        if (subtree.isEmpty()) {
+            return Optional.empty();
+        }
+        Map<Long, MessageDto> dtos = new HashMap<>();
+        MessageDto rootDto = toDto(subtree.get(0));
+        dtos.put(rootDto.getId(), rootDto);
+        for (MessageRow row : subtree.subList(1, subtree.size())) {
+            MessageDto dto = toDto(row);
+            dtos.put(row.id(), dto);
+            dtos.get(row.parentId()).getChildren().add(dto);
         }
+        return Optional.of(rootDto);
+    }
 
-        topLevelMessages.sort((a, b) -> b.getCreatedAt().compareTo(a.getCreatedAt()));
-        sortChildrenRecursively(topLevelMessages);
-        
-        return topLevelMessages;
+    /**
+     * Same as {@link #getSubtree} as parallel arrays, level by level
+     */
+    @Transactional(readOnly = true)
+    public Optional<FlatTree> getFlatSubtree(Long id, Integer maxDepth) {
+        return requestCoalescer.execute("flat-subtree", () -> buildFlatSubtree(id, maxDepth),
+                id, maxDepth, messageTreeIndex.versionTag(id));
+    }
+
+    private Optional<FlatTree> buildFlatSubtree(Long id, Integer maxDepth) {
+        List<MessageRow> subtree = loadSubtree(id, maxDepth);
+        if (subtree.isEmpty()) {
+            return Optional.empty();
+        }
+        FlatTree flat = new FlatTree();
+        for (MessageRow row : subtree) {
+            flat.add(row.id(), row.parentId(), row.content(), row.createdAt(), toUserInfo(row),
+                    row.replyCount(), row.descendantCount());
+        }
+        return Optional.of(flat);
     }
 
     /**
-     * batch build message
+     * The message followed by its replies down to {@code maxDepth} levels, ordered by depth,
+     * using one range query over the materialized path; empty if the message does not exist
      */
-    private List<MessageDto> buildMessageDtos(List<Message> messages) {
-        if (messages.isEmpty()) {
-            return new ArrayList<>();
+    private List<MessageRow> loadSubtree(Long id, Integer maxDepth) {
+        MessageRow root = messageRepository.findRowById(id).orElse(null);
+        if (root == null) {
+            return List.of();
         }
+        String from = root.subtreePrefix();
+        // '0' is the character after '/', so [from, to) covers exactly the paths starting with from
+        String to = from.substring(0, from.length() - 1) + '0';
+        int lastDepth = maxDepth != null ? root.depth() + maxDepth : Integer.MAX_VALUE;
+        List<MessageRow> subtree = new ArrayList<>();
+        subtree.add(root);
+        if (lastDepth > root.depth()) {
+            subtree.addAll(messageRepository.findSubtreeRows(from, to, lastDepth));
+        }
+        return subtree;
+    }
 
-        // Extract message IDs for batch query
-        List<Long> messageIds = messages.stream()
-                .map(Message::getId)
+    /**
+     * Get the root-to-message path ending with the message itself, empty if it does not exist
+     */
+    @Transactional(readOnly = true)
+    public List<MessageDto> getAncestors(Long id) {
+        return messageRepository.findPathToRoot(id).stream()
+                .map(MessageService::toDto)
                 .toList();
+    }
 
-        // Batch query to find which messages have children
-        List<Long> parentIdsWithChildren = messageRepository.findParentIdsWithChildren(messageIds);
-        Set<Long> hasChildrenSet = new java.util.HashSet<>(parentIdsWithChildren);
-
-        // Build DTOs with batch-determined hasChildren flag
-        return messages.stream()
-                .map(message -> {
-                    UserInfo userInfo = UserInfo.builder()
-                            .username(message.getUser().getUsername())
-                            .email(message.getUser().getEmail())
-                            .build();
-
-                    boolean hasChildren = hasChildrenSet.contains(message.getId());
-
-                    return new MessageDto(
-                            message.getId(),
-                            message.getContent(),
-                            message.getCreatedAt(),
-                            userInfo,
-                            new ArrayList<>(),
-                            hasChildren
-                    );
-                })
-                .toList();
+    /**
+     * Same as {@link #getAllMessagesWithTree()} as parallel arrays
+     */
+    public FlatTree getFlatTree() {
+        return requestCoalescer.execute("flat-tree", messageTreeIndex::flatTree, messageTreeIndex.versionTag());
     }
 
-    // Recursively sort child messages
-    private void sortChildrenRecursively(List<MessageDto> messages) {
-        for (MessageDto message : messages) {
-            if (message.getChildren() != null && !message.getChildren().isEmpty()) {
-                message.getChildren().sort(Comparator.comparing(MessageDto::getCreatedAt));
-                sortChildrenRecursively(message.getChildren());
-            }
-        }
+    /**
+     * Stream the whole forest depth-first in the same order as {@link #getAllMessagesWithTree()},
+     * one flat message at a time, without materializing it
+     */
+    public void streamAllMessages(MessageTreeIndex.BatchSink sink) throws IOException {
+        messageTreeIndex.streamTree(sink);
+    }
+
+    /**
+     * Version tag that changes whenever any message is added
+     */
+    public String getTreeVersion() {
+        return messageTreeIndex.versionTag();
+    }
+
+    /**
+     * Version tag that changes whenever a message is added below {@code id}, null if the
+     * message is unknown
+     */
+    public String getSubtreeVersion(Long id) {
+        return messageTreeIndex.versionTag(id);
+    }
+
+    /**
+     * Reload the in-memory tree index from the database
+     */
+    public int rebuildTreeIndex() {
+        return messageTreeIndex.rebuild();
+    }
+
+    private static MessageDto toDto(MessageRow row) {
+        return new MessageDto(
+                row.id(),
+                row.parentId(),
+                row.content(),
+                row.createdAt(),
+                toUserInfo(row),
+                new ArrayList<>(),
+                row.replyCount() > 0,
+                row.replyCount(),
+                row.descendantCount()
+        );
+    }
+
+    private static UserInfo toUserInfo(MessageRow row) {
+        return UserInfo.builder()
+                .username(row.username())
+                .email(row.email())
+                .build();
     }
 
 }
@@ -0,0 +1,742 @@
+package com.message.tree.backend.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.message.tree.backend.dto.FlatTree;
+import com.message.tree.backend.dto.MessageDto;
+import com.message.tree.backend.dto.MessagePage;
+import com.message.tree.backend.dto.UserInfo;
+import com.message.tree.backend.entity.Message;
+import com.message.tree.backend.repository.MessageRepository;
+import com.message.tree.backend.repository.MessageRow;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Resident, incrementally maintained copy of the message forest.
+ * <p>
+ * Loaded once at startup and kept up to date from {@link MessageCreatedEvent}s, so the
+ * read endpoints are answered from memory without touching the database. Every sibling list
+ * is kept ordered by (createdAt, id) ascending.
+ * <p>
+ * Every change bumps a global version and stamps it on the new message's ancestors, so a
+ * node's version changes exactly when something in its subtree (and so its replies or their
+ * counters) changes. Versions are only bumped once the change is visible to readers.
+ * <p>
+ * Metrics: {@code messages.tree.rebuild} times reloading, split into the {@code load} phase
+ * (query and hydration) and the {@code link} phase (ordering replies into their parents);
+ * {@code messages.tree.build} and {@code messages.tree.dtos} cover every full tree handed out;
+ * {@code messages.tree.nodes}, {@code messages.tree.roots} and {@code messages.tree.depth.max}
+ * describe the forest.
+ * <p>
+ * The reply lists of {@link #children} and {@link #topLevel} are cached per parent, bounded by
+ * {@code app.messages.children-cache.max-messages} cached messages and expiring
+ * {@code app.messages.children-cache.ttl} after they were built. A new message evicts its
+ * parent's list and, since each list carries its messages' reply counters, the list holding
+ * each of its ancestors; nothing else is flushed. The cache is published as the
+ * {@code messageChildren} cache in the {@code cache.*} metrics, {@code cache.hit.ratio}
+ * included, tagged like the caches of Spring's cache manager.
+ * <p>
+ * For JSON, {@link #treeJson} keeps the forest pre-rendered: every message's head and tail
+ * (see {@link MessageJsonFragments}) and every thread's complete bytes, spliced from them.
+ * A new message renders its own head and re-renders only the tails of its ancestors and the
+ * bytes of its thread. Intermediate subtrees are not kept, a deep chain would hold each
+ * message once per ancestor.
+ */
+@Slf4j
+@Component
+@DependsOn({"messageTreeMigration", "messageSearchMigration"})
+public class MessageTreeIndex {
+    private static final int STREAM_BATCH_SIZE = 256;
+    private static final String CHILDREN_CACHE = "messageChildren";
+    // Cache key of the top-level list, message ids start at 1
+    private static final long TOP_LEVEL = 0L;
+    private static final Comparator<Node> ORDER = Comparator
+            .comparing((Node node) -> node.createdAt)
+            .thenComparingLong(node -> node.id);
+
+    private final MessageRepository messageRepository;
+    private final Timer loadTimer;
+    private final Timer linkTimer;
+    private final Timer buildTimer;
+    private final DistributionSummary builtDtos;
+    private final Cache<Long, List<MessageDto>> childrenCache;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, Node> nodes = new HashMap<>();
+    private final Map<Long, UserInfo> users = new HashMap<>();
+    private final List<Node> roots = new ArrayList<>();
+    // Versions restart with the process, the epoch keeps tags from an earlier run from matching
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private long version;
+    private volatile int maxDepth;
+
+    public MessageTreeIndex(MessageRepository messageRepository, MeterRegistry meterRegistry,
+                            @Value("${app.messages.children-cache.max-messages:100000}") long maxCachedMessages,
+                            @Value("${app.messages.children-cache.ttl:10m}") Duration cacheTtl) {
+        this.messageRepository = messageRepository;
+        this.childrenCache = Caffeine.newBuilder()
+                .maximumWeight(maxCachedMessages)
+                .weigher((Long parentId, List<MessageDto> children) -> children.size() + 1)
+                .expireAfterWrite(cacheTtl)
+                .recordStats()
+                .build();
+        this.loadTimer = Timer.builder("messages.tree.rebuild").tag("phase", "load").register(meterRegistry);
+        this.linkTimer = Timer.builder("messages.tree.rebuild").tag("phase", "link").register(meterRegistry);
+        this.buildTimer = Timer.builder("messages.tree.build").register(meterRegistry);
+        this.builtDtos = DistributionSummary.builder("messages.tree.dtos").register(meterRegistry);
+        Gauge.builder("messages.tree.nodes", this, MessageTreeIndex::size).register(meterRegistry);
+        Gauge.builder("messages.tree.roots", this, index -> index.roots.size()).register(meterRegistry);
+        Gauge.builder("messages.tree.depth.max", this, index -> index.maxDepth).register(meterRegistry);
+        // Same tag keys as the Spring-managed caches, Prometheus drops meters whose keys differ
+        Tags cacheTags = Tags.of("cache.manager", "messageTreeIndex", "name", CHILDREN_CACHE);
+        CaffeineCacheMetrics.monitor(meterRegistry, childrenCache, CHILDREN_CACHE, cacheTags);
+        Gauge.builder("cache.hit.ratio", childrenCache, cache -> cache.stats().hitRate())
+                .tag("cache", CHILDREN_CACHE)
+                .tags(cacheTags)
+                .description("Share of lookups answered from the cache since startup")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs after the migrations have backfilled path, depth and the reply counters it reads
+     */
+    @PostConstruct
+    public void load() {
+        rebuild();
+    }
+
+    /**
+     * Reload the whole index from the database
+     *
+     * @return number of indexed messages
+     */
+    public int rebuild() {
+        lock.writeLock().lock();
+        try {
+            long start = System.nanoTime();
+            nodes.clear();
+            users.clear();
+            roots.clear();
+            maxDepth = 0;
+            version++;
+            childrenCache.invalidateAll();
+            List<Node> loaded = new ArrayList<>();
+            for (MessageRow row : messageRepository.findAllRows()) {
+                Node node = toNode(row);
+                nodes.put(node.id, node);
+                loaded.add(node);
+            }
+            long loadedAt = System.nanoTime();
+            loadTimer.record(loadedAt - start, TimeUnit.NANOSECONDS);
+            // Rows arrive ordered by createdAt, so almost every link below is an append
+            for (Node node : loaded) {
+                link(node);
+            }
+            linkTimer.record(System.nanoTime() - loadedAt, TimeUnit.NANOSECONDS);
+            log.info("Loaded {} messages into the tree index in {} ms",
+                    nodes.size(), (System.nanoTime() - start) / 1_000_000);
+            return nodes.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Runs before any other listener, so they all find the message in the index
+     */
+    @TransactionalEventListener
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void onMessageCreated(MessageCreatedEvent event) {
+        add(event.message());
+    }
+
+    /**
+     * Add a freshly persisted message; adding the same message twice is a no-op
+     */
+    public void add(Message message) {
+        lock.writeLock().lock();
+        try {
+            insert(MessageRow.of(message));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Tag of the current state of the whole forest
+     */
+    public String versionTag() {
+        lock.readLock().lock();
+        try {
+            return epoch + "." + version;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Tag of the current state of a message's subtree, or null for an unknown message
+     */
+    public String versionTag(Long id) {
+        lock.readLock().lock();
+        try {
+            Node node = nodes.get(id);
+            return node == null ? null : epoch + "." + node.version;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return nodes.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Top-level messages, newest first. The list is shared and must not be modified.
+     */
+    public List<MessageDto> topLevel() {
+        lock.readLock().lock();
+        try {
+            // Built under the read lock, so an eviction by a concurrent insert cannot come first
+            return childrenCache.get(TOP_LEVEL, key -> toFlatDtos(roots));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Direct replies of a message, newest first. The list is shared and must not be modified.
+     */
+    public List<MessageDto> children(Long parentId) {
+        lock.readLock().lock();
+        try {
+            Node parent = nodes.get(parentId);
+            return parent == null ? List.of() : childrenCache.get(parent.id, key -> toFlatDtos(parent.children));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Direct replies of each message, newest first, keyed in the order the ids were given.
+     * Unknown ids map to an empty list, as in {@link #children(Long)}. All lists come from one
+     * version of the tree and are shared.
+     */
+    public Map<Long, List<MessageDto>> children(Collection<Long> parentIds) {
+        lock.readLock().lock();
+        try {
+            Map<Long, List<MessageDto>> children = new LinkedHashMap<>();
+            for (Long parentId : parentIds) {
+                Node parent = nodes.get(parentId);
+                children.put(parentId, parent == null ? List.of()
+                        : childrenCache.get(parent.id, key -> toFlatDtos(parent.children)));
+            }
+            return children;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * One page of top-level messages, newest first
+     *
+     * @param after cursor returned with the previous page, or null for the first page
+     */
+    public MessagePage topLevelPage(String after, int limit) {
+        lock.readLock().lock();
+        try {
+            return page(roots, after, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * One page of direct replies, newest first
+     *
+     * @param after cursor returned with the previous page, or null for the first page
+     */
+    public MessagePage childrenPage(Long parentId, String after, int limit) {
+        lock.readLock().lock();
+        try {
+            Node parent = nodes.get(parentId);
+            return parent == null ? new MessagePage(new ArrayList<>(), null) : page(parent.children, after, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * One page of at most {@code limit} top-level messages, newest first, each with its replies
+     * down to {@code depth} levels below it and at most the {@code maxChildren} newest replies of
+     * every message. A
+     * message whose replies were left out has {@code hasMore}; when some of them were included
+     * its {@code next} continues the list in {@link #childrenPage}, otherwise that starts
+     * from its first page. The page's own cursor continues with {@link #topLevelPage} as well.
+     *
+     * @param after cursor returned with the previous page, or null for the first page
+     */
+    public MessagePage boundedTree(String after, int limit, int depth, int maxChildren) {
+        lock.readLock().lock();
+        try {
+            int end = pageEnd(roots, after);
+            int start = Math.max(0, end - limit);
+            List<MessageDto> items = new ArrayList<>(end - start);
+            for (int i = end - 1; i >= start; i--) {
+                items.add(toBoundedDto(roots.get(i), depth, maxChildren));
+            }
+            String next = start > 0 ? encodeCursor(roots.get(start)) : null;
+            return new MessagePage(items, next);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The whole forest: top-level messages newest first, replies oldest first
+     */
+    public List<MessageDto> tree() {
+        lock.readLock().lock();
+        try {
+            long start = System.nanoTime();
+            List<MessageDto> result = new ArrayList<>(roots.size());
+            for (int i = roots.size() - 1; i >= 0; i--) {
+                result.add(toTreeDto(roots.get(i)));
+            }
+            buildTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            builtDtos.record(nodes.size());
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The JSON of every thread in {@link #tree()} order, byte for byte what serializing it
+     * writes between the brackets of the array. The arrays are shared and must not be modified.
+     */
+    public List<byte[]> treeJson(MessageJsonFragments fragments) {
+        lock.readLock().lock();
+        try {
+            List<byte[]> threads = new ArrayList<>(roots.size());
+            for (int i = roots.size() - 1; i >= 0; i--) {
+                Node root = roots.get(i);
+                // Readers may render the same thread at once, writers are locked out and they
+                // all store equal bytes
+                byte[] json = root.threadJson;
+                if (json == null) {
+                    json = renderThread(root, fragments);
+                    root.threadJson = json;
+                }
+                threads.add(json);
+            }
+            return threads;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The whole forest in {@link #tree()} order (depth-first) as parallel arrays
+     */
+    public FlatTree flatTree() {
+        lock.readLock().lock();
+        try {
+            long start = System.nanoTime();
+            FlatTree result = new FlatTree();
+            // Roots are kept oldest first, pushing them in that order leaves the newest on top
+            Deque<Node> stack = new ArrayDeque<>();
+            for (Node root : roots) {
+                stack.push(root);
+            }
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                result.add(node.id, node.parentId, node.content, node.createdAt, node.user,
+                        node.children.size(), node.descendantCount);
+                // Pushed newest first, so replies come off the stack oldest first
+                for (int i = node.children.size() - 1; i >= 0; i--) {
+                    stack.push(node.children.get(i));
+                }
+            }
+            buildTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            builtDtos.record(result.size());
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Walk the forest depth-first in {@link #tree()} order and hand it over as flat messages
+     * (children left null) in small batches. The read lock is only held while a batch is
+     * collected, never while the sink writes, so a slow consumer cannot stall writers and
+     * memory use does not grow with the size of the forest.
+     */
+    public void streamTree(BatchSink sink) throws IOException {
+        Deque<Cursor> stack = new ArrayDeque<>();
+        stack.push(new Cursor(roots, true));
+        List<MessageDto> batch = new ArrayList<>(STREAM_BATCH_SIZE);
+        while (!stack.isEmpty()) {
+            lock.readLock().lock();
+            try {
+                while (!stack.isEmpty() && batch.size() < STREAM_BATCH_SIZE) {
+                    Node node = stack.peek().next();
+                    if (node == null) {
+                        stack.pop();
+                        continue;
+                    }
+                    batch.add(toDto(node, null));
+                    if (!node.children.isEmpty()) {
+                        stack.push(new Cursor(node.children, false));
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            sink.accept(batch);
+            batch.clear();
+        }
+    }
+
+    private void insert(MessageRow row) {
+        if (nodes.containsKey(row.id())) {
+            return;
+        }
+        Node node = toNode(row);
+        nodes.put(node.id, node);
+        if (link(node)) {
+            version++;
+            node.version = version;
+            childrenCache.invalidate(cacheKey(node.parentId));
+            Node root = node;
+            for (Node ancestor = node.parent; ancestor != null; ancestor = ancestor.parent) {
+                ancestor.descendantCount++;
+                ancestor.version = version;
+                ancestor.tail = null;
+                childrenCache.invalidate(cacheKey(ancestor.parentId));
+                root = ancestor;
+            }
+            root.threadJson = null;
+        }
+    }
+
+    private Node toNode(MessageRow row) {
+        Node node = new Node(row.id(), row.parentId(), row.content(), row.createdAt(), userInfo(row));
+        node.descendantCount = row.descendantCount() != null ? row.descendantCount() : 0;
+        // Stored rather than derived in link, a reply may be linked before its parent during rebuild
+        node.depth = row.depth() != null ? row.depth() : 0;
+        node.version = version;
+        return node;
+    }
+
+    private boolean link(Node node) {
+        if (node.parentId == null) {
+            insertOrdered(roots, node);
+            return true;
+        }
+        Node parent = nodes.get(node.parentId);
+        if (parent == null) {
+            log.warn("Message {} references unknown parent {}, skipped", node.id, node.parentId);
+            return false;
+        }
+        node.parent = parent;
+        node.depth = parent.depth + 1;
+        if (node.depth > maxDepth) {
+            maxDepth = node.depth;
+        }
+        insertOrdered(parent.children, node);
+        return true;
+    }
+
+    private UserInfo userInfo(MessageRow row) {
+        return users.computeIfAbsent(row.userId(), id -> UserInfo.builder()
+                .username(row.username())
+                .email(row.email())
+                .build());
+    }
+
+    private static void insertOrdered(List<Node> siblings, Node node) {
+        if (siblings.isEmpty() || ORDER.compare(siblings.get(siblings.size() - 1), node) <= 0) {
+            siblings.add(node);
+            return;
+        }
+        int pos = Collections.binarySearch(siblings, node, ORDER);
+        siblings.add(pos < 0 ? -pos - 1 : pos, node);
+    }
+
+    /**
+     * Walk an ascending sibling list backwards from the cursor, the cost is independent of the page offset
+     */
+    private static MessagePage page(List<Node> siblings, String after, int limit) {
+        int end = pageEnd(siblings, after);
+        int start = Math.max(0, end - limit);
+        List<MessageDto> items = new ArrayList<>(end - start);
+        for (int i = end - 1; i >= start; i--) {
+            items.add(toDto(siblings.get(i), new ArrayList<>()));
+        }
+        String next = start > 0 ? encodeCursor(siblings.get(start)) : null;
+        return new MessagePage(items, next);
+    }
+
+    /**
+     * Index just past the newest sibling that belongs on the page after the cursor
+     */
+    private static int pageEnd(List<Node> siblings, String after) {
+        if (after == null) {
+            return siblings.size();
+        }
+        int pos = Collections.binarySearch(siblings, decodeCursor(after), ORDER);
+        return pos < 0 ? -pos - 1 : pos;
+    }
+
+    private static String encodeCursor(Node node) {
+        String raw = node.createdAt + "|" + node.id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Node decodeCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int sep = raw.lastIndexOf('|');
+            return new Node(Long.parseLong(raw.substring(sep + 1)), null, null,
+                    LocalDateTime.parse(raw.substring(0, sep)), null);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
+
+    private static List<MessageDto> toFlatDtos(List<Node> siblings) {
+        List<MessageDto> result = new ArrayList<>(siblings.size());
+        for (int i = siblings.size() - 1; i >= 0; i--) {
+            result.add(toDto(siblings.get(i), new ArrayList<>()));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private static long cacheKey(Long parentId) {
+        return parentId != null ? parentId : TOP_LEVEL;
+    }
+
+    /**
+     * Copy a node and all of its replies with an explicit stack; siblings are already in
+     * order, so nothing needs sorting
+     */
+    private static MessageDto toTreeDto(Node root) {
+        MessageDto rootDto = toDto(root, new ArrayList<>(root.children.size()));
+        Deque<Node> nodeStack = new ArrayDeque<>();
+        Deque<MessageDto> dtoStack = new ArrayDeque<>();
+        nodeStack.push(root);
+        dtoStack.push(rootDto);
+        while (!nodeStack.isEmpty()) {
+            Node node = nodeStack.pop();
+            List<MessageDto> children = dtoStack.pop().getChildren();
+            for (Node child : node.children) {
+                MessageDto childDto = toDto(child, new ArrayList<>(child.children.size()));
+                children.add(childDto);
+                if (!child.children.isEmpty()) {
+                    nodeStack.push(child);
+                    dtoStack.push(childDto);
+                }
+            }
+        }
+        return rootDto;
+    }
+
+    /**
+     * Splice a thread from its messages' fragments, depth-first with replies oldest first
+     */
+    private static byte[] renderThread(Node root, MessageJsonFragments fragments) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(head(root, fragments));
+        Deque<Node> nodeStack = new ArrayDeque<>();
+        Deque<Integer> nextStack = new ArrayDeque<>();
+        nodeStack.push(root);
+        nextStack.push(0);
+        while (!nodeStack.isEmpty()) {
+            Node node = nodeStack.peek();
+            int next = nextStack.pop();
+            if (next < node.children.size()) {
+                if (next > 0) {
+                    out.write(',');
+                }
+                Node child = node.children.get(next);
+                nextStack.push(next + 1);
+                out.writeBytes(head(child, fragments));
+                nodeStack.push(child);
+                nextStack.push(0);
+            } else {
+                nodeStack.pop();
+                out.writeBytes(tail(node, fragments));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] head(Node node, MessageJsonFragments fragments) {
+        byte[] head = node.head;
+        if (head == null) {
+            head = fragments.head(toDto(node, List.of()));
+            node.head = head;
+        }
+        return head;
+    }
+
+    private static byte[] tail(Node node, MessageJsonFragments fragments) {
+        byte[] tail = node.tail;
+        if (tail == null) {
+            tail = fragments.tail(!node.children.isEmpty(), node.children.size(), node.descendantCount);
+            node.tail = tail;
+        }
+        return tail;
+    }
+
+    /**
+     * Copy a thread down to {@code depth} levels below its root with at most
+     * {@code maxChildren} replies per message, newest first, with an explicit stack like
+     * {@link #toTreeDto}
+     */
+    private static MessageDto toBoundedDto(Node root, int depth, int maxChildren) {
+        MessageDto rootDto = toBoundedDto(root, depth > 0, maxChildren);
+        Deque<Node> nodeStack = new ArrayDeque<>();
+        Deque<MessageDto> dtoStack = new ArrayDeque<>();
+        if (depth > 0) {
+            nodeStack.push(root);
+            dtoStack.push(rootDto);
+        }
+        while (!nodeStack.isEmpty()) {
+            Node node = nodeStack.pop();
+            List<MessageDto> children = dtoStack.pop().getChildren();
+            int start = Math.max(0, node.children.size() - maxChildren);
+            for (int i = node.children.size() - 1; i >= start; i--) {
+                Node child = node.children.get(i);
+                boolean expanded = child.depth - root.depth < depth;
+                MessageDto childDto = toBoundedDto(child, expanded, maxChildren);
+                children.add(childDto);
+                if (expanded && !child.children.isEmpty()) {
+                    nodeStack.push(child);
+                    dtoStack.push(childDto);
+                }
+            }
+        }
+        return rootDto;
+    }
+
+    /**
+     * A message with room for its newest replies, or without children (omitted from JSON)
+     * when it lies at the depth limit
+     */
+    private static MessageDto toBoundedDto(Node node, boolean expanded, int maxChildren) {
+        if (!expanded) {
+            MessageDto dto = toDto(node, null);
+            dto.setHasMore(!node.children.isEmpty());
+            return dto;
+        }
+        int included = Math.min(maxChildren, node.children.size());
+        MessageDto dto = toDto(node, new ArrayList<>(included));
+        dto.setHasMore(included < node.children.size());
+        if (included > 0 && included < node.children.size()) {
+            dto.setNext(encodeCursor(node.children.get(node.children.size() - included)));
+        }
+        return dto;
+    }
+
+    private static MessageDto toDto(Node node, List<MessageDto> children) {
+        return new MessageDto(node.id, node.parentId, node.content, node.createdAt, node.user, children,
+                !node.children.isEmpty(), node.children.size(), node.descendantCount);
+    }
+
+    /**
+     * Receives consecutive batches of {@link #streamTree} output; the list is reused afterwards
+     */
+    @FunctionalInterface
+    public interface BatchSink {
+        void accept(List<MessageDto> batch) throws IOException;
+    }
+
+    /**
+     * Position in one sibling list. It remembers the last visited node rather than an index,
+     * so it stays valid when a reply is inserted into the list between two batches.
+     */
+    private static final class Cursor {
+        private final List<Node> siblings;
+        private final boolean newestFirst;
+        private Node last;
+
+        private Cursor(List<Node> siblings, boolean newestFirst) {
+            this.siblings = siblings;
+            this.newestFirst = newestFirst;
+        }
+
+        private Node next() {
+            int index;
+            if (last == null) {
+                index = newestFirst ? siblings.size() - 1 : 0;
+            } else {
+                int pos = Collections.binarySearch(siblings, last, ORDER);
+                if (newestFirst) {
+                    index = pos >= 0 ? pos - 1 : -pos - 2;
+                } else {
+                    index = pos >= 0 ? pos + 1 : -pos - 1;
+                }
+            }
+            if (index < 0 || index >= siblings.size()) {
+                return null;
+            }
+            last = siblings.get(index);
+            return last;
+        }
+    }
+
+    private static final class Node {
+        private final long id;
+        private final Long parentId;
+        private final String content;
+        private final LocalDateTime createdAt;
+        private final UserInfo user;
+        private final List<Node> children = new ArrayList<>();
+        private Node parent;
+        private int descendantCount;
+        private int depth;
+        private long version;
+        // Pre-rendered JSON, written under the read lock by whichever reader needs it first
+        private volatile byte[] head;
+        private volatile byte[] tail;
+        private volatile byte[] threadJson;
+
+        private Node(long id, Long parentId, String content, LocalDateTime createdAt, UserInfo user) {
+            this.id = id;
+            this.parentId = parentId;
+            this.content = content;
+            this.createdAt = createdAt;
+            this.user = user;
+        }
+    }
+}
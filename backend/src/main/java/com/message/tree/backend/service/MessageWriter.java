@@ -0,0 +1,166 @@
+package com.message.tree.backend.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * The only thread that writes messages. SQLite allows one writer at a time, so instead of
+ * letting request threads race for the lock (and fail with SQLITE_BUSY), writes are queued
+ * and a dedicated thread drains them, committing everything that piled up meanwhile in one
+ * transaction. Callers get their result through a future once the group has committed.
+ * <p>
+ * Every queued task is completed, also when its work throws an {@link Error} or the writer is
+ * stopped, and the thread survives failures of the work it runs. {@link #execute} waits at most
+ * {@code app.messages.writer.timeout} for the commit.
+ */
+@Slf4j
+@Component
+public class MessageWriter {
+    private final TransactionTemplate transactionTemplate;
+    private final int maxBatch;
+    private final Duration timeout;
+    private final BlockingQueue<WriteTask<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public MessageWriter(TransactionTemplate transactionTemplate,
+                         @Value("${app.messages.writer.max-batch:256}") int maxBatch,
+                         @Value("${app.messages.writer.timeout:30s}") Duration timeout) {
+        this.transactionTemplate = transactionTemplate;
+        this.maxBatch = maxBatch;
+        this.timeout = timeout;
+        this.thread = new Thread(this::drain, "message-writer");
+        this.thread.setDaemon(true);
+    }
+
+    @PostConstruct
+    public void start() {
+        thread.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        thread.interrupt();
+        thread.join();
+        List<WriteTask<?>> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        pending.forEach(WriteTask::reject);
+    }
+
+    /**
+     * Queue a unit of work to run inside the writer's transaction
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> work) {
+        if (!running) {
+            throw new IllegalStateException("Message writer stopped");
+        }
+        WriteTask<T> task = new WriteTask<>(work);
+        queue.add(task);
+        // Stopped in the meantime: whoever takes the task out of the queue completes it, stop() or us
+        if (!running && queue.remove(task)) {
+            task.reject();
+        }
+        return task.future;
+    }
+
+    /**
+     * Queue a unit of work and wait until it has been committed. If that takes longer than the
+     * timeout the caller gets an exception, but the work stays queued and may still commit.
+     */
+    public <T> T execute(Supplier<T> work) {
+        try {
+            return submit(work).get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            switch (e.getCause()) {
+                case RuntimeException cause -> throw cause;
+                case Error cause -> throw cause;
+                default -> throw new CompletionException(e.getCause());
+            }
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Message write not committed within " + timeout, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a message write", e);
+        }
+    }
+
+    private void drain() {
+        List<WriteTask<?>> batch = new ArrayList<>(maxBatch);
+        while (running) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            queue.drainTo(batch, maxBatch - 1);
+            try {
+                commit(batch);
+            } catch (Throwable e) {
+                // Only reached if failing the tasks failed too, the thread must keep draining
+                log.error("Message writer failed on a group of {} writes", batch.size(), e);
+                batch.forEach(task -> task.future.completeExceptionally(e));
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Run the whole group in one transaction; if anything in it fails, fall back to one
+     * transaction per task so a single bad write only fails its own caller
+     */
+    private void commit(List<WriteTask<?>> batch) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> batch.forEach(WriteTask::run));
+            batch.forEach(WriteTask::complete);
+            return;
+        } catch (Throwable e) {
+            if (batch.size() == 1) {
+                batch.get(0).future.completeExceptionally(e);
+                return;
+            }
+            log.debug("Group of {} writes failed, retrying one by one", batch.size(), e);
+        }
+        for (WriteTask<?> task : batch) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> task.run());
+                task.complete();
+            } catch (Throwable e) {
+                task.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static final class WriteTask<T> {
+        private final Supplier<T> work;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private T result;
+
+        private WriteTask(Supplier<T> work) {
+            this.work = work;
+        }
+
+        private void run() {
+            result = work.get();
+        }
+
+        private void complete() {
+            future.complete(result);
+        }
+
+        private void reject() {
+            future.completeExceptionally(new IllegalStateException("Message writer stopped"));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.message.tree.backend.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight execution of read views: while one caller computes a view, callers asking
+ * for the same view with the same key wait for that computation and share its result
+ * instead of starting their own. Nothing is kept once the computation is done, so a key
+ * should include the version of the data it reads; a caller never gets a result computed
+ * from an older version than the one it asked for.
+ * <p>
+ * Views listed in {@code app.messages.coalesce} are coalesced, the others always compute.
+ * Callers that were handed another caller's result are counted by {@code messages.coalesced}.
+ * Shared results must not be modified.
+ */
+@Component
+public class RequestCoalescer {
+    private final Set<String> views;
+    private final MeterRegistry meterRegistry;
+    private final Map<List<Object>, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    public RequestCoalescer(@Value("${app.messages.coalesce:tree,flat-tree,subtree,flat-subtree}") Set<String> views,
+                            MeterRegistry meterRegistry) {
+        this.views = views;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Compute the view, or wait for a computation of the same view and key already running
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String view, Supplier<T> computation, Object... key) {
+        if (!views.contains(view)) {
+            return computation.get();
+        }
+        List<Object> flightKey = new ArrayList<>(key.length + 1);
+        flightKey.add(view);
+        flightKey.addAll(Arrays.asList(key));
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(flightKey, flight);
+        if (running != null) {
+            Counter.builder("messages.coalesced").tag("view", view).register(meterRegistry).increment();
+            return (T) join(running);
+        }
+        try {
+            T result = computation.get();
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(flightKey, flight);
+        }
+    }
+
+    private static Object join(CompletableFuture<Object> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
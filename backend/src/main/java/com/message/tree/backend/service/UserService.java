@@ -2,7 +2,7 @@ package com.message.tree.backend.service;
 
 import com.message.tree.backend.entity.User;
 import com.message.tree.backend.repository.UserRepository;
-import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
@@ -11,12 +11,24 @@ import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.util.Optional;
+import java.util.Set;
 
+/**
+ * Every user has the USER role; the users named in {@code app.security.admins} also have ADMIN,
+ * which operations affecting everyone require.
+ */
 @Service
-@RequiredArgsConstructor
 public class UserService implements UserDetailsService {
     private final UserRepository userRepository;
     private final PasswordEncoder passwordEncoder;
+    private final Set<String> admins;
+
+    public UserService(UserRepository userRepository, PasswordEncoder passwordEncoder,
+                       @Value("${app.security.admins:}") Set<String> admins) {
+        this.userRepository = userRepository;
+        this.passwordEncoder = passwordEncoder;
+        this.admins = admins;
+    }
 
     @Override
     public UserDetails loadUserByUsername(String usernameOrEmail) throws UsernameNotFoundException {
@@ -25,7 +37,7 @@ public class UserService implements UserDetailsService {
         return org.springframework.security.core.userdetails.User.builder()
                 .username(user.getUsername())
                 .password(user.getPassword())
-                .roles("USER")
+                .roles(admins.contains(user.getUsername()) ? new String[]{"USER", "ADMIN"} : new String[]{"USER"})
                 .build();
     }
 
@@ -0,0 +1,107 @@
+package com.message.tree.backend;
+
+import com.message.tree.backend.entity.User;
+import com.message.tree.backend.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Base of the tests that run the whole application. The configuration lives here only, so
+ * every subclass shares one application context on a database created for the run, along
+ * with the fixtures for creating users and logging them in. Tests share that database, so
+ * each works on users and messages of its own.
+ */
+@SpringBootTest(properties = {
+        "management.endpoints.web.exposure.include=health,metrics,prometheus",
+        "app.security.admins=" + IntegrationTest.ADMIN
+})
+@AutoConfigureMockMvc
+@AutoConfigureObservability(tracing = false)
+public abstract class IntegrationTest {
+    protected static final String ADMIN = "testadmin";
+    protected static final String PASSWORD = "Passw0rd!";
+    private static final AtomicInteger USERS = new AtomicInteger();
+
+    @Autowired
+    protected MockMvc mockMvc;
+
+    @Autowired
+    protected UserRepository userRepository;
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) throws IOException {
+        Path db = Files.createTempFile("integration-test", ".db");
+        db.toFile().deleteOnExit();
+        registry.add("spring.datasource.url", () -> "jdbc:sqlite:" + db + "?journal_mode=WAL&busy_timeout=5000");
+    }
+
+    /**
+     * A username nobody has taken yet
+     */
+    protected static String username() {
+        return "user" + USERS.incrementAndGet();
+    }
+
+    /**
+     * A user saved directly, for tests that call services rather than endpoints
+     */
+    protected User createUser() {
+        User user = new User();
+        user.setUsername(username());
+        user.setEmail(user.getUsername() + "@example.com");
+        user.setPassword("x");
+        user.setCreatedAt(LocalDateTime.now());
+        return userRepository.save(user);
+    }
+
+    /**
+     * Registers a new user through the API
+     *
+     * @return the user's name
+     */
+    protected String register() throws Exception {
+        return register(username());
+    }
+
+    /**
+     * The admin named in {@code app.security.admins}, registered by the first test that needs it
+     *
+     * @return the admin's name
+     */
+    protected String admin() throws Exception {
+        return userRepository.findByUsername(ADMIN).isPresent() ? ADMIN : register(ADMIN);
+    }
+
+    private String register(String username) throws Exception {
+        mockMvc.perform(post("/api/auth/register").contentType(MediaType.APPLICATION_JSON).content("""
+                {"username": "%s", "password": "%s", "email": "%s@example.com"}
+                """.formatted(username, PASSWORD, username)))
+                .andExpect(status().isOk());
+        return username;
+    }
+
+    protected MockHttpSession login(String username) throws Exception {
+        MockHttpSession session = new MockHttpSession();
+        mockMvc.perform(post("/api/auth/login").session(session).contentType(MediaType.APPLICATION_JSON).content("""
+                {"usernameOrEmail": "%s", "password": "%s"}
+                """.formatted(username, PASSWORD)))
+                .andExpect(status().isOk());
+        return session;
+    }
+}
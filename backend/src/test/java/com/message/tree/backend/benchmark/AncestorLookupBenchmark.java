@@ -0,0 +1,123 @@
+package com.message.tree.backend.benchmark;
+
+import com.message.tree.backend.dto.MessageDto;
+import com.message.tree.backend.dto.UserInfo;
+import com.message.tree.backend.entity.Message;
+import com.message.tree.backend.entity.User;
+import com.message.tree.backend.repository.MessageRepository;
+import com.message.tree.backend.repository.UserRepository;
+import com.message.tree.backend.service.MessageService;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the single-statement ancestor lookup with walking the lazy {@code Message.parent}
+ * association. Run with {@code gradle benchmark}.
+ */
+@Tag("benchmark")
+@SpringBootTest(properties = {
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "logging.level.org.hibernate.engine.internal.StatisticalLoggingSessionEventListener=warn"
+})
+class AncestorLookupBenchmark {
+    private static final int[] DEPTHS = {10, 100, 1000};
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = 50;
+
+    @Autowired
+    private MessageService messageService;
+    @Autowired
+    private MessageRepository messageRepository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) throws IOException {
+        Path db = Files.createTempFile("ancestor-benchmark", ".db");
+        db.toFile().deleteOnExit();
+        registry.add("spring.datasource.url", () -> "jdbc:sqlite:" + db);
+    }
+
+    @Test
+    void ancestorsVersusLazyTraversal() {
+        User user = new User();
+        user.setUsername("bench");
+        user.setPassword("x");
+        user.setEmail("bench@example.com");
+        user.setCreatedAt(LocalDateTime.now());
+        userRepository.save(user);
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        System.out.printf("%-8s %-12s %12s %12s%n", "depth", "strategy", "avg (us)", "statements");
+        for (int depth : DEPTHS) {
+            Message leaf = messageService.createMessage("root of " + depth, user, null);
+            for (int level = 1; level <= depth; level++) {
+                leaf = messageService.createMessage("level " + level, user, leaf.getId());
+            }
+            long leafId = leaf.getId();
+
+            assertEquals(depth + 1, messageService.getAncestors(leafId).size());
+            assertEquals(depth + 1, lazyTraversal(leafId).size());
+
+            report(depth, "cte", statistics, leafId, id -> messageService.getAncestors(id));
+            report(depth, "lazy", statistics, leafId, this::lazyTraversal);
+        }
+    }
+
+    private void report(int depth, String strategy, Statistics statistics, long leafId, LongFunction<List<?>> lookup) {
+        for (int i = 0; i < WARMUP; i++) {
+            lookup.apply(leafId);
+        }
+        statistics.clear();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            lookup.apply(leafId);
+        }
+        long avgMicros = (System.nanoTime() - start) / ITERATIONS / 1000;
+        long statements = statistics.getPrepareStatementCount() / ITERATIONS;
+        System.out.printf("%-8d %-12s %12d %12d%n", depth, strategy, avgMicros, statements);
+    }
+
+    /**
+     * The pre-existing way to reach the root: one SELECT per {@code parent} hop
+     */
+    private List<MessageDto> lazyTraversal(long leafId) {
+        return transactionTemplate.execute(status -> {
+            List<MessageDto> path = new ArrayList<>();
+            Message current = messageRepository.findById(leafId).orElseThrow();
+            while (current != null) {
+                MessageDto dto = new MessageDto();
+                dto.setId(current.getId());
+                dto.setContent(current.getContent());
+                dto.setCreatedAt(current.getCreatedAt());
+                dto.setUser(new UserInfo(
+                        current.getUser().getUsername(), current.getUser().getEmail()));
+                path.add(0, dto);
+                current = current.getParent();
+            }
+            return path;
+        });
+    }
+}
@@ -0,0 +1,179 @@
+package com.message.tree.backend.benchmark;
+
+import com.message.tree.backend.BackendApplication;
+import com.message.tree.backend.dto.ImportMessageRequest;
+import com.message.tree.backend.entity.User;
+import com.message.tree.backend.repository.UserRepository;
+import com.message.tree.backend.service.MessageImportService;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Load test for request coalescing: concurrent readers of /tree and of one thread's /subtree,
+ * once with {@code app.messages.coalesce} empty and once with every view coalesced. For each
+ * number of readers it reports the throughput and how many SQL statements and full tree
+ * builds the server ran per request; without coalescing both stay at a fixed cost per
+ * request, with it they fall as more readers share each computation.
+ * <p>
+ * Run with {@code gradle benchmark}, {@code -Dbenchmark.readers=1,10,100} picks the reader counts.
+ */
+@Tag("benchmark")
+class CoalescingBenchmark {
+    private static final int[] READERS = Arrays.stream(System.getProperty("benchmark.readers", "1,10,100,500").split(","))
+            .mapToInt(Integer::parseInt)
+            .toArray();
+    private static final Duration WARMUP = Duration.ofSeconds(Integer.getInteger("benchmark.warmup", 2));
+    private static final Duration MEASURE = Duration.ofSeconds(Integer.getInteger("benchmark.measure", 5));
+    private static final int ROOTS = 100;
+    private static final int REPLIES = 20;
+    private static final int HOT_THREAD_REPLIES = 1000;
+
+    @Test
+    void coalescedVersusIndependentReads() throws Exception {
+        List<String> rows = new ArrayList<>(run(""));
+        rows.addAll(run("tree,flat-tree,subtree,flat-subtree"));
+
+        System.out.printf("%-10s %-10s %8s %10s %14s %14s %8s%n",
+                "coalesce", "endpoint", "readers", "req/s", "statements/req", "builds/req", "errors");
+        rows.forEach(System.out::println);
+    }
+
+    private static List<String> run(String coalesce) throws Exception {
+        Path db = Files.createTempFile("coalescing-benchmark", ".db");
+        db.toFile().deleteOnExit();
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(BackendApplication.class).run(
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:sqlite:" + db + "?journal_mode=WAL&synchronous=NORMAL&busy_timeout=5000",
+                "--app.messages.coalesce=" + coalesce,
+                "--server.tomcat.threads.max=" + (Arrays.stream(READERS).max().orElse(1) + 10),
+                "--server.tomcat.max-keep-alive-requests=-1",
+                "--logging.level.root=warn")) {
+            long hotThreadId = seed(context);
+            String base = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+            Statistics statistics = context.getBean(EntityManagerFactory.class).unwrap(SessionFactory.class).getStatistics();
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            LongSupplier statements = statistics::getPrepareStatementCount;
+            LongSupplier builds = () -> registry.get("messages.tree.build").timer().count();
+            String label = coalesce.isEmpty() ? "off" : "on";
+
+            List<String> rows = new ArrayList<>();
+            for (int readers : READERS) {
+                rows.add(load(label, "tree", readers, URI.create(base + "/api/messages/tree"), statements, builds));
+                rows.add(load(label, "subtree", readers,
+                        URI.create(base + "/api/messages/" + hotThreadId + "/subtree"), statements, builds));
+            }
+            return rows;
+        }
+    }
+
+    private static long seed(ConfigurableApplicationContext context) {
+        User user = new User();
+        user.setUsername("bench");
+        user.setPassword("x");
+        user.setEmail("bench@example.com");
+        user.setCreatedAt(LocalDateTime.now());
+        context.getBean(UserRepository.class).save(user);
+        List<ImportMessageRequest> requests = new ArrayList<>();
+        for (int root = 0; root < ROOTS; root++) {
+            requests.add(request("r" + root, null, "thread " + root));
+            int replies = root == 0 ? HOT_THREAD_REPLIES : REPLIES;
+            for (int reply = 0; reply < replies; reply++) {
+                requests.add(request("r" + root + "." + reply, "r" + root, "reply " + reply + " to " + root));
+            }
+        }
+        return context.getBean(MessageImportService.class).importMessages(user, requests).get("r0");
+    }
+
+    private static ImportMessageRequest request(String ref, String parentRef, String content) {
+        ImportMessageRequest request = new ImportMessageRequest();
+        request.setRef(ref);
+        request.setParentRef(parentRef);
+        request.setContent(content);
+        return request;
+    }
+
+    /**
+     * {@code readers} clients each sending their next request as soon as the last one is
+     * answered; counters are compared between the end of the warmup and the end of the run
+     */
+    private static String load(String coalesce, String endpoint, int readers, URI uri,
+                               LongSupplier statements, LongSupplier builds) throws Exception {
+        LongAdder completed = new LongAdder();
+        LongAdder errors = new LongAdder();
+        Phase phase = new Phase();
+        try (HttpClient http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(60)).build();
+            for (int i = 0; i < readers; i++) {
+                executor.submit(() -> client(http, request, phase, completed, errors));
+            }
+            Thread.sleep(WARMUP);
+            long requestsBefore = completed.sum();
+            long statementsBefore = statements.getAsLong();
+            long buildsBefore = builds.getAsLong();
+            long start = System.nanoTime();
+            Thread.sleep(MEASURE);
+            long requests = completed.sum() - requestsBefore;
+            long statementCount = statements.getAsLong() - statementsBefore;
+            long buildCount = builds.getAsLong() - buildsBefore;
+            double seconds = (System.nanoTime() - start) / 1e9;
+            phase.stopped = true;
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(2, TimeUnit.MINUTES));
+
+            return String.format("%-10s %-10s %8d %10.0f %14.3f %14.3f %8d", coalesce, endpoint, readers,
+                    requests / seconds, (double) statementCount / Math.max(1, requests),
+                    (double) buildCount / Math.max(1, requests), errors.sum());
+        }
+    }
+
+    private static void client(HttpClient http, HttpRequest request, Phase phase, LongAdder completed, LongAdder errors) {
+        while (!phase.stopped) {
+            try {
+                if (http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    completed.increment();
+                } else {
+                    errors.increment();
+                }
+            } catch (IOException e) {
+                errors.increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static final class Phase {
+        private volatile boolean stopped;
+    }
+}
@@ -0,0 +1,133 @@
+package com.message.tree.backend.benchmark;
+
+import com.message.tree.backend.dto.MessageDto;
+import com.message.tree.backend.dto.UserInfo;
+import com.message.tree.backend.entity.Message;
+import com.message.tree.backend.repository.MessageRepository;
+import com.message.tree.backend.repository.MessageRow;
+import com.message.tree.backend.seed.DatasetGenerator;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares reading messages as {@link MessageRow} projections with reading them as managed
+ * {@code Message} entities joined to their {@code User}, both mapped to {@link MessageDto}s,
+ * for the whole-forest load of the tree index and for the subtree of the largest thread.
+ * Reports the average latency and the bytes allocated on the calling thread per call.
+ * Run with {@code gradle benchmark -Dbenchmark.messages=200000}.
+ */
+@Tag("benchmark")
+@SpringBootTest
+class ProjectionBenchmark {
+    private static final int MESSAGES = Integer.getInteger("benchmark.messages", 100_000);
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 10;
+    private static final String ALL_ENTITIES = "SELECT m FROM Message m JOIN FETCH m.user ORDER BY m.createdAt";
+    private static final String SUBTREE_ENTITIES = "SELECT m FROM Message m JOIN FETCH m.user "
+            + "WHERE m.path >= :from AND m.path < :to AND m.depth <= :maxDepth ORDER BY m.depth, m.createdAt, m.id";
+
+    @Autowired
+    private MessageRepository messageRepository;
+    @Autowired
+    private EntityManager entityManager;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) throws Exception {
+        Path db = Files.createTempFile("projection-benchmark", ".db");
+        db.toFile().deleteOnExit();
+        DatasetGenerator.main(new String[]{"--db=" + db, "--messages=" + MESSAGES, "--users=1000"});
+        registry.add("spring.datasource.url", () -> "jdbc:sqlite:" + db);
+    }
+
+    @Test
+    void projectionsVersusEntities() {
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+
+        MessageRow largest = messageRepository.findAllRows().stream()
+                .filter(row -> row.parentId() == null)
+                .max(Comparator.comparing(MessageRow::descendantCount))
+                .orElseThrow();
+        String from = largest.subtreePrefix();
+        String to = from.substring(0, from.length() - 1) + '0';
+
+        Supplier<List<MessageDto>> allEntities = () -> readOnly.execute(status ->
+                toDtos(entityManager.createQuery(ALL_ENTITIES, Message.class).getResultList()));
+        Supplier<List<MessageDto>> allRows = () -> rowsToDtos(messageRepository.findAllRows());
+        Supplier<List<MessageDto>> subtreeEntities = () -> readOnly.execute(status ->
+                toDtos(entityManager.createQuery(SUBTREE_ENTITIES, Message.class)
+                        .setParameter("from", from)
+                        .setParameter("to", to)
+                        .setParameter("maxDepth", Integer.MAX_VALUE)
+                        .getResultList()));
+        Supplier<List<MessageDto>> subtreeRows = () ->
+                rowsToDtos(messageRepository.findSubtreeRows(from, to, Integer.MAX_VALUE));
+
+        assertEquals(allEntities.get().size(), allRows.get().size());
+        assertEquals(largest.descendantCount(), subtreeRows.get().size());
+        assertEquals(subtreeEntities.get().size(), subtreeRows.get().size());
+
+        System.out.printf("%-10s %-10s %10s %12s %14s%n", "query", "strategy", "rows", "avg (ms)", "alloc (MB)");
+        report("all", "entity", allEntities);
+        report("all", "row", allRows);
+        report("subtree", "entity", subtreeEntities);
+        report("subtree", "row", subtreeRows);
+    }
+
+    private static void report(String query, String strategy, Supplier<List<MessageDto>> read) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int rows = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            rows = read.get().size();
+        }
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            read.get();
+        }
+        double avgMillis = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+        double allocatedMegabytes = (threads.getCurrentThreadAllocatedBytes() - allocatedBefore) / 1e6 / ITERATIONS;
+        System.out.printf("%-10s %-10s %10d %12.1f %14.1f%n", query, strategy, rows, avgMillis, allocatedMegabytes);
+    }
+
+    private static List<MessageDto> toDtos(List<Message> messages) {
+        List<MessageDto> dtos = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            dtos.add(new MessageDto(message.getId(),
+                    message.getParent() != null ? message.getParent().getId() : null,
+                    message.getContent(), message.getCreatedAt(),
+                    new UserInfo(message.getUser().getUsername(), message.getUser().getEmail()),
+                    null, message.getReplyCount() > 0, message.getReplyCount(), message.getDescendantCount()));
+        }
+        return dtos;
+    }
+
+    private static List<MessageDto> rowsToDtos(List<MessageRow> rows) {
+        List<MessageDto> dtos = new ArrayList<>(rows.size());
+        for (MessageRow row : rows) {
+            dtos.add(new MessageDto(row.id(), row.parentId(), row.content(), row.createdAt(),
+                    new UserInfo(row.username(), row.email()),
+                    null, row.replyCount() > 0, row.replyCount(), row.descendantCount()));
+        }
+        return dtos;
+    }
+}
@@ -0,0 +1,218 @@
+package com.message.tree.backend.benchmark;
+
+import com.message.tree.backend.BackendApplication;
+import com.message.tree.backend.dto.ImportMessageRequest;
+import com.message.tree.backend.entity.User;
+import com.message.tree.backend.repository.UserRepository;
+import com.message.tree.backend.service.MessageImportService;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares request handling on Tomcat's platform thread pool with
+ * {@code spring.threads.virtual.enabled=true} under many concurrent keep-alive connections,
+ * once for an endpoint answered from the in-memory index and once for one that queries SQLite.
+ * While the virtual thread run is going, JFR reports every virtual thread that parks while
+ * pinned to its carrier, the test fails if any of those is inside the sqlite-jdbc driver or
+ * Hibernate.
+ * <p>
+ * Run with {@code gradle benchmark}. Client and server share this JVM, so every connection
+ * costs two file descriptors: the default of 10,000 connections needs a descriptor limit
+ * above 20,000, pass {@code -Dbenchmark.connections=N} to use fewer.
+ */
+@Tag("benchmark")
+class VirtualThreadBenchmark {
+    private static final int CONNECTIONS = Integer.getInteger("benchmark.connections", 10_000);
+    private static final Duration WARMUP = Duration.ofSeconds(Integer.getInteger("benchmark.warmup", 5));
+    private static final Duration MEASURE = Duration.ofSeconds(Integer.getInteger("benchmark.measure", 15));
+    private static final int ROOTS = 100;
+    private static final int REPLIES = 20;
+
+    private final Map<String, LongAdder> pinnedFrames = new ConcurrentHashMap<>();
+
+    @Test
+    void platformVersusVirtualThreads() throws Exception {
+        List<String> rows = new ArrayList<>(run(false));
+
+        try (RecordingStream pinning = new RecordingStream()) {
+            pinning.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+            pinning.onEvent("jdk.VirtualThreadPinned", this::recordPinned);
+            pinning.startAsync();
+            rows.addAll(run(true));
+        }
+
+        System.out.printf("%-10s %-10s %12s %10s %10s %10s%n", "threads", "endpoint", "req/s", "p50 (ms)", "p99 (ms)", "errors");
+        rows.forEach(System.out::println);
+        System.out.println("Pinned virtual threads by top application frame:");
+        pinnedFrames.forEach((frame, count) -> System.out.printf("  %8d  %s%n", count.sum(), frame));
+
+        List<String> inPersistence = pinnedFrames.keySet().stream()
+                .filter(frame -> frame.contains("org.sqlite.") || frame.contains("org.hibernate."))
+                .toList();
+        assertTrue(inPersistence.isEmpty(), "Virtual threads pinned in the persistence layer: " + inPersistence);
+    }
+
+    private static List<String> run(boolean virtual) throws Exception {
+        Path db = Files.createTempFile("virtual-thread-benchmark", ".db");
+        db.toFile().deleteOnExit();
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(BackendApplication.class).run(
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:sqlite:" + db + "?journal_mode=WAL&synchronous=NORMAL&busy_timeout=5000",
+                "--spring.threads.virtual.enabled=" + virtual,
+                "--server.tomcat.max-connections=" + (CONNECTIONS + 1000),
+                "--server.tomcat.accept-count=4096",
+                "--server.tomcat.max-keep-alive-requests=-1",
+                "--logging.level.root=warn")) {
+            long rootId = seed(context);
+            String base = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+            String label = virtual ? "virtual" : "platform";
+            return List.of(
+                    load(label, "page", URI.create(base + "/api/messages?limit=20")),
+                    load(label, "subtree", URI.create(base + "/api/messages/" + rootId + "/subtree?maxDepth=2")));
+        }
+    }
+
+    private static long seed(ConfigurableApplicationContext context) {
+        User user = new User();
+        user.setUsername("bench");
+        user.setPassword("x");
+        user.setEmail("bench@example.com");
+        user.setCreatedAt(LocalDateTime.now());
+        context.getBean(UserRepository.class).save(user);
+        List<ImportMessageRequest> requests = new ArrayList<>();
+        for (int root = 0; root < ROOTS; root++) {
+            requests.add(request("r" + root, null, "thread " + root));
+            for (int reply = 0; reply < REPLIES; reply++) {
+                requests.add(request("r" + root + "." + reply, "r" + root, "reply " + reply + " to " + root));
+            }
+        }
+        return context.getBean(MessageImportService.class).importMessages(user, requests).get("r0");
+    }
+
+    private static ImportMessageRequest request(String ref, String parentRef, String content) {
+        ImportMessageRequest request = new ImportMessageRequest();
+        request.setRef(ref);
+        request.setParentRef(parentRef);
+        request.setContent(content);
+        return request;
+    }
+
+    /**
+     * One virtual thread per connection, each sending its next request as soon as the last
+     * one is answered
+     */
+    private static String load(String threads, String endpoint, URI uri) throws Exception {
+        Phase phase = new Phase();
+        LongAdder errors = new LongAdder();
+        List<Future<long[]>> clients = new ArrayList<>(CONNECTIONS);
+        try (HttpClient http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(30))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(60)).build();
+            for (int i = 0; i < CONNECTIONS; i++) {
+                clients.add(executor.submit(() -> client(http, request, phase, errors)));
+            }
+            Thread.sleep(WARMUP);
+            long start = System.nanoTime();
+            phase.measureFrom = start;
+            Thread.sleep(MEASURE);
+            phase.measureUntil = System.nanoTime();
+            phase.stopped = true;
+
+            List<long[]> samples = new ArrayList<>(CONNECTIONS);
+            for (Future<long[]> client : clients) {
+                samples.add(client.get());
+            }
+            long[] latencies = samples.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+            double seconds = (phase.measureUntil - start) / 1e9;
+            return String.format("%-10s %-10s %12.0f %10.1f %10.1f %10d", threads, endpoint,
+                    latencies.length / seconds, percentile(latencies, 0.50), percentile(latencies, 0.99), errors.sum());
+        }
+    }
+
+    private static long[] client(HttpClient http, HttpRequest request, Phase phase, LongAdder errors) {
+        long[] latencies = new long[64];
+        int count = 0;
+        while (!phase.stopped) {
+            long sent = System.nanoTime();
+            boolean ok;
+            try {
+                ok = http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+            } catch (IOException e) {
+                ok = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            long received = System.nanoTime();
+            if (received < phase.measureFrom || received > phase.measureUntil) {
+                continue;
+            }
+            if (!ok) {
+                errors.increment();
+                continue;
+            }
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = received - sent;
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)] / 1e6;
+    }
+
+    private void recordPinned(RecordedEvent event) {
+        String frames = event.getStackTrace() == null ? "<no stack trace>" : event.getStackTrace().getFrames().stream()
+                .filter(RecordedFrame::isJavaFrame)
+                .map(frame -> frame.getMethod().getType().getName() + "." + frame.getMethod().getName())
+                .filter(frame -> !frame.startsWith("java.") && !frame.startsWith("jdk."))
+                .limit(3)
+                .collect(Collectors.joining(" <- "));
+        if (frames.isEmpty()) {
+            frames = "<JDK frames only>";
+        }
+        pinnedFrames.computeIfAbsent(frames, key -> new LongAdder()).increment();
+    }
+
+    private static final class Phase {
+        private volatile long measureFrom = Long.MAX_VALUE;
+        private volatile long measureUntil = Long.MAX_VALUE;
+        private volatile boolean stopped;
+    }
+}
@@ -0,0 +1,22 @@
+package com.message.tree.backend.config;
+
+import com.message.tree.backend.IntegrationTest;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CacheMetricsTest extends IntegrationTest {
+
+    @Autowired
+    private PrometheusMeterRegistry registry;
+
+    @Test
+    void everyCacheIsScraped() {
+        String scrape = registry.scrape();
+        for (String cache : new String[]{"usersByUsername", "usersByLogin", "messageChildren"}) {
+            assertTrue(scrape.contains("cache_gets_total{cache=\"" + cache + "\""), cache + " missing from the scrape");
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.message.tree.backend.config;
+
+import com.message.tree.backend.IntegrationTest;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class SecurityConfigTest extends IntegrationTest {
+
+    @Test
+    void onlyHealthIsPublicOnTheActuator() throws Exception {
+        String user = register();
+        String admin = admin();
+
+        mockMvc.perform(get("/actuator/health")).andExpect(status().isOk());
+        for (String endpoint : new String[]{"/actuator/prometheus", "/actuator/metrics", "/actuator/metrics/cache.gets"}) {
+            mockMvc.perform(get(endpoint)).andExpect(status().isUnauthorized());
+            mockMvc.perform(get(endpoint).header(HttpHeaders.AUTHORIZATION, basic(user))).andExpect(status().isForbidden());
+            mockMvc.perform(get(endpoint).header(HttpHeaders.AUTHORIZATION, basic(admin))).andExpect(status().isOk());
+        }
+    }
+
+    private static String basic(String username) {
+        return "Basic " + Base64.getEncoder().encodeToString((username + ":" + PASSWORD).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,146 @@
+package com.message.tree.backend.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.message.tree.backend.IntegrationTest;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class MessageControllerTest extends IntegrationTest {
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void onlyAdminsRebuildTheTree() throws Exception {
+        mockMvc.perform(post("/api/messages/tree/rebuild")).andExpect(status().isForbidden());
+        mockMvc.perform(post("/api/messages/tree/rebuild").session(login(register()))).andExpect(status().isForbidden());
+        mockMvc.perform(post("/api/messages/tree/rebuild").session(login(admin()))).andExpect(status().isOk());
+    }
+
+    @Test
+    void boundedTreeHasNoFlatLayout() throws Exception {
+        mockMvc.perform(get("/api/messages/tree").param("depth", "2")).andExpect(status().isOk());
+        mockMvc.perform(get("/api/messages/tree").param("layout", "flat")).andExpect(status().isOk());
+        mockMvc.perform(get("/api/messages/tree").param("depth", "2").param("layout", "flat"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void repliesPageByCursorAndRevalidateByETag() throws Exception {
+        MockHttpSession session = login(register());
+        long root = create(session, "paged root", null);
+        List<Long> replies = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            replies.add(create(session, "paged reply " + i, root));
+        }
+
+        MvcResult first = mockMvc.perform(get("/api/messages/{id}/children", root).param("limit", "2"))
+                .andExpect(status().isOk()).andReturn();
+        String etag = first.getResponse().getHeader(HttpHeaders.ETAG);
+        JsonNode firstPage = json(first);
+        assertNotNull(etag);
+        assertEquals(List.of(replies.get(2), replies.get(1)), ids(firstPage.get("items")));
+
+        JsonNode secondPage = json(mockMvc.perform(get("/api/messages/{id}/children", root)
+                        .param("limit", "2").param("after", firstPage.get("next").asText()))
+                .andExpect(status().isOk()).andReturn());
+        assertEquals(List.of(replies.get(0)), ids(secondPage.get("items")));
+        assertTrue(secondPage.get("next").isNull());
+
+        mockMvc.perform(get("/api/messages/{id}/children", root).param("limit", "2").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+        // A new reply changes the parent's version, the old tag no longer matches
+        create(session, "paged reply 3", root);
+        mockMvc.perform(get("/api/messages/{id}/children", root).param("limit", "2").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/api/messages/{id}/children", root).param("limit", "2").param("after", "garbage"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void importRemapsRefsAndUpdatesCounters() throws Exception {
+        MockHttpSession session = login(register());
+        long existing = create(session, "import target", null);
+
+        JsonNode ids = json(mockMvc.perform(post("/api/messages/import").session(session)
+                        .contentType(MediaType.APPLICATION_JSON).content("""
+                                {"messages": [
+                                  {"ref": "root", "content": "imported root"},
+                                  {"ref": "reply", "parentRef": "root", "content": "imported reply"},
+                                  {"ref": "nested", "parentRef": "reply", "content": "imported nested reply"},
+                                  {"ref": "attached", "parentId": %d, "content": "imported onto existing"}
+                                ]}
+                                """.formatted(existing)))
+                .andExpect(status().isOk()).andReturn()).get("ids");
+        long root = ids.get("root").asLong();
+        long reply = ids.get("reply").asLong();
+
+        JsonNode subtree = json(mockMvc.perform(get("/api/messages/{id}/subtree", root)).andExpect(status().isOk()).andReturn());
+        assertEquals(1, subtree.get("replyCount").asInt());
+        assertEquals(2, subtree.get("descendantCount").asInt());
+        JsonNode replyNode = subtree.get("children").get(0);
+        assertEquals(reply, replyNode.get("id").asLong());
+        assertEquals(root, replyNode.get("parentId").asLong());
+        assertEquals(ids.get("nested").asLong(), replyNode.get("children").get(0).get("id").asLong());
+
+        JsonNode target = json(mockMvc.perform(get("/api/messages/{id}/subtree", existing)).andExpect(status().isOk()).andReturn());
+        assertEquals(1, target.get("replyCount").asInt());
+        assertEquals(1, target.get("descendantCount").asInt());
+        assertEquals(ids.get("attached").asLong(), target.get("children").get(0).get("id").asLong());
+    }
+
+    @Test
+    void importRejectsAnUnknownParentAndKeepsNothing() throws Exception {
+        MockHttpSession session = login(register());
+        long existing = create(session, "import untouched", null);
+
+        mockMvc.perform(post("/api/messages/import").session(session).contentType(MediaType.APPLICATION_JSON).content("""
+                        {"messages": [
+                          {"ref": "ok", "parentId": %d, "content": "would be a reply"},
+                          {"ref": "orphan", "parentId": %d, "content": "parent is missing"}
+                        ]}
+                        """.formatted(existing, Long.MAX_VALUE)))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/api/messages/import").session(session).contentType(MediaType.APPLICATION_JSON).content("""
+                        {"messages": [{"ref": "orphan", "parentRef": "nowhere", "content": "parent is missing"}]}
+                        """))
+                .andExpect(status().isBadRequest());
+
+        // Parents are checked before anything is written, the valid reply is not kept either
+        JsonNode target = json(mockMvc.perform(get("/api/messages/{id}/subtree", existing)).andExpect(status().isOk()).andReturn());
+        assertEquals(0, target.get("replyCount").asInt());
+    }
+
+    private long create(MockHttpSession session, String content, Long parentId) throws Exception {
+        MvcResult result = mockMvc.perform(post("/api/messages").session(session).contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new CreateMessage(content, parentId))))
+                .andExpect(status().isOk()).andReturn();
+        return json(result).get("messageId").asLong();
+    }
+
+    private JsonNode json(MvcResult result) throws Exception {
+        return objectMapper.readTree(result.getResponse().getContentAsString());
+    }
+
+    private static List<Long> ids(JsonNode messages) {
+        List<Long> ids = new ArrayList<>();
+        messages.forEach(message -> ids.add(message.get("id").asLong()));
+        return ids;
+    }
+
+    private record CreateMessage(String content, Long parentId) {
+    }
+}
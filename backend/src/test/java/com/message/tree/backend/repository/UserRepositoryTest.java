@@ -0,0 +1,79 @@
+package com.message.tree.backend.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.message.tree.backend.IntegrationTest;
+import com.message.tree.backend.entity.User;
+import com.message.tree.backend.service.UserService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.interceptor.SimpleKey;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserRepositoryTest extends IntegrationTest {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    private User user;
+
+    @BeforeEach
+    void createTestUser() {
+        user = createUser();
+    }
+
+    @Test
+    void repeatedLookupsAreAnsweredFromTheCache() {
+        long hits = cache(UserRepository.USERS_BY_USERNAME).stats().hitCount();
+
+        User first = userRepository.findByUsername(user.getUsername()).orElseThrow();
+        User second = userRepository.findByUsername(user.getUsername()).orElseThrow();
+        userRepository.findByUsernameOrEmail(user.getEmail(), user.getEmail()).orElseThrow();
+        userRepository.findByUsernameOrEmail(user.getEmail(), user.getEmail()).orElseThrow();
+
+        assertSame(first, second);
+        assertEquals(hits + 1, cache(UserRepository.USERS_BY_USERNAME).stats().hitCount());
+        assertNotNull(cache(UserRepository.USERS_BY_LOGIN).getIfPresent(key(user.getEmail(), user.getEmail())));
+    }
+
+    @Test
+    void absentUsersAreNotCached() {
+        String username = username();
+
+        assertTrue(userRepository.findByUsername(username).isEmpty());
+        assertNull(cache(UserRepository.USERS_BY_USERNAME).getIfPresent(username));
+
+        userService.registerUser(username, "Passw0rd!", username + "@example.com");
+        assertTrue(userRepository.findByUsername(username).isPresent());
+    }
+
+    @Test
+    void registeringClearsBothCaches() {
+        userRepository.findByUsername(user.getUsername()).orElseThrow();
+        userRepository.findByUsernameOrEmail(user.getUsername(), user.getUsername()).orElseThrow();
+        assertNotNull(cache(UserRepository.USERS_BY_USERNAME).getIfPresent(user.getUsername()));
+
+        String username = username();
+        userService.registerUser(username, "Passw0rd!", username + "@example.com");
+
+        assertNull(cache(UserRepository.USERS_BY_USERNAME).getIfPresent(user.getUsername()));
+        assertNull(cache(UserRepository.USERS_BY_LOGIN).getIfPresent(key(user.getUsername(), user.getUsername())));
+    }
+
+    private Cache<Object, Object> cache(String name) {
+        return ((CaffeineCache) cacheManager.getCache(name)).getNativeCache();
+    }
+
+    /**
+     * Key Spring's default key generator builds for a two-argument lookup
+     */
+    private static Object key(String username, String email) {
+        return new SimpleKey(username, email);
+    }
+}
@@ -0,0 +1,264 @@
+package com.message.tree.backend.seed;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Standalone generator for large synthetic datasets, written straight into a SQLite file with
+ * JDBC batch inserts inside large transactions. It writes the same schema Hibernate creates,
+ * including the materialized paths and reply counters, so the application can start on the
+ * result without any backfill.
+ * <p>
+ * Run with {@code gradle generateDataset -PgeneratorArgs="--messages=5000000 --users=100000"}.
+ * Options (defaults in brackets):
+ * <ul>
+ *     <li>{@code --db} SQLite file to create or append to [./data.db]</li>
+ *     <li>{@code --users} users to create [10000]</li>
+ *     <li>{@code --messages} messages to create [1000000]</li>
+ *     <li>{@code --thread-size} mean messages per thread, sizes are geometrically distributed [50]</li>
+ *     <li>{@code --max-depth} deepest reply level [100]</li>
+ *     <li>{@code --chain-ratio} share of replies that answer the thread's latest message and so
+ *     deepen it; the rest answer a random earlier message and widen it [0.3]</li>
+ *     <li>{@code --days} time span the messages are spread over, ending now [365]</li>
+ *     <li>{@code --batch} rows per JDBC batch [10000]</li>
+ *     <li>{@code --commit} rows per transaction [500000]</li>
+ *     <li>{@code --seed} random seed [42]</li>
+ * </ul>
+ * Every generated user has the password {@code Passw0rd!}.
+ */
+public class DatasetGenerator {
+    private static final Logger log = LoggerFactory.getLogger(DatasetGenerator.class);
+    private static final String PASSWORD = "Passw0rd!";
+    private static final String[] WORDS = {
+            "tree", "thread", "reply", "message", "spring", "sqlite", "index", "query", "cache",
+            "latency", "depth", "branch", "root", "leaf", "java", "stream", "batch", "commit"
+    };
+
+    private final Map<String, String> options;
+    private final Random random;
+
+    private DatasetGenerator(Map<String, String> options) {
+        this.options = options;
+        this.random = new Random(longOption("seed", 42));
+    }
+
+    public static void main(String[] args) throws SQLException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            int sep = arg.indexOf('=');
+            options.put(arg.substring(2, sep), arg.substring(sep + 1));
+        }
+        new DatasetGenerator(options).run();
+    }
+
+    private void run() throws SQLException {
+        String db = options.getOrDefault("db", "./data.db");
+        int users = (int) longOption("users", 10_000);
+        long messages = longOption("messages", 1_000_000);
+        long start = System.nanoTime();
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + db)) {
+            try (Statement statement = connection.createStatement()) {
+                // Bulk load settings for this connection only; a crash mid-run loses the file anyway
+                statement.execute("PRAGMA synchronous = OFF");
+                statement.execute("PRAGMA journal_mode = MEMORY");
+                statement.execute("PRAGMA cache_size = -262144");
+            }
+            createSchema(connection);
+            connection.setAutoCommit(false);
+
+            long firstUserId = nextId(connection, "user");
+            insertUsers(connection, firstUserId, users);
+            connection.commit();
+            log.info("Inserted {} users", users);
+
+            insertMessages(connection, firstUserId, users, messages);
+            connection.commit();
+        }
+        log.info("Generated {} users and {} messages into {} in {} s", users, messages, db,
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+    }
+
+    /**
+     * Same DDL as Hibernate's schema update for the User and Message entities
+     */
+    private static void createSchema(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS user (id integer, created_at timestamp not null, "
+                    + "email varchar(50) not null unique, password varchar(100) not null, "
+                    + "username varchar(20) not null unique, primary key (id))");
+            statement.execute("CREATE TABLE IF NOT EXISTS message (id integer, content varchar(200) not null, "
+                    + "created_at timestamp not null, depth integer, descendant_count integer, parent_id bigint, "
+                    + "path text, reply_count integer, user_id bigint not null, primary key (id))");
+            statement.execute("CREATE INDEX IF NOT EXISTS idx_message_path on message (path)");
+        }
+    }
+
+    private static long nextId(Connection connection, String table) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(id), 0) + 1 FROM " + table)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private void insertUsers(Connection connection, long firstId, int count) throws SQLException {
+        // BCrypt is deliberately slow, so every user shares one hash
+        String hash = new BCryptPasswordEncoder().encode(PASSWORD);
+        long now = System.currentTimeMillis();
+        int batchSize = (int) longOption("batch", 10_000);
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO user (id, created_at, email, password, username) VALUES (?, ?, ?, ?, ?)")) {
+            for (int i = 0; i < count; i++) {
+                long id = firstId + i;
+                insert.setLong(1, id);
+                insert.setLong(2, now);
+                insert.setString(3, "gen" + id + "@example.com");
+                insert.setString(4, hash);
+                insert.setString(5, "gen" + id);
+                insert.addBatch();
+                if ((i + 1) % batchSize == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+    }
+
+    private void insertMessages(Connection connection, long firstUserId, int users, long total) throws SQLException {
+        double meanThreadSize = doubleOption("thread-size", 50);
+        int maxDepth = (int) longOption("max-depth", 100);
+        double chainRatio = doubleOption("chain-ratio", 0.3);
+        int batchSize = (int) longOption("batch", 10_000);
+        long commitEvery = longOption("commit", 500_000);
+        long end = System.currentTimeMillis();
+        long step = Math.max(1, TimeUnit.DAYS.toMillis(longOption("days", 365)) / Math.max(1, total));
+        long createdAt = end - step * total;
+
+        long nextId = nextId(connection, "message");
+        long written = 0;
+        long pendingBatch = 0;
+        long sinceCommit = 0;
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO message (id, content, created_at, depth, descendant_count, parent_id, path, reply_count, user_id) "
+                        + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            while (written < total) {
+                int size = (int) Math.min(total - written, threadSize(meanThreadSize));
+                ThreadShape thread = new ThreadShape(size);
+                thread.grow(random, maxDepth, chainRatio);
+
+                for (int i = 0; i < size; i++) {
+                    int parent = thread.parents[i];
+                    insert.setLong(1, nextId + i);
+                    insert.setString(2, content());
+                    insert.setLong(3, createdAt);
+                    insert.setInt(4, thread.depths[i]);
+                    insert.setInt(5, thread.descendants[i]);
+                    if (parent < 0) {
+                        insert.setNull(6, Types.BIGINT);
+                    } else {
+                        insert.setLong(6, nextId + parent);
+                    }
+                    insert.setString(7, thread.path(i, nextId));
+                    insert.setInt(8, thread.replies[i]);
+                    insert.setLong(9, firstUserId + random.nextInt(users));
+                    insert.addBatch();
+                    createdAt += step;
+
+                    if (++pendingBatch == batchSize) {
+                        insert.executeBatch();
+                        pendingBatch = 0;
+                    }
+                    if (++sinceCommit == commitEvery) {
+                        insert.executeBatch();
+                        pendingBatch = 0;
+                        connection.commit();
+                        sinceCommit = 0;
+                        log.info("Inserted {} of {} messages", written + i + 1, total);
+                    }
+                }
+                nextId += size;
+                written += size;
+            }
+            insert.executeBatch();
+        }
+    }
+
+    private long threadSize(double mean) {
+        // Geometric distribution with the given mean, at least one message
+        double p = 1.0 / Math.max(1.0, mean);
+        return 1 + (long) Math.floor(Math.log(1 - random.nextDouble()) / Math.log(1 - Math.min(p, 0.999999)));
+    }
+
+    private String content() {
+        StringBuilder content = new StringBuilder();
+        int words = 3 + random.nextInt(20);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                content.append(' ');
+            }
+            content.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return content.toString();
+    }
+
+    private long longOption(String name, long defaultValue) {
+        String value = options.get(name);
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
+
+    private double doubleOption(String name, double defaultValue) {
+        String value = options.get(name);
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
+
+    /**
+     * Shape of one thread in creation order; index 0 is the root, every parent precedes its replies
+     */
+    private static final class ThreadShape {
+        private final int[] parents;
+        private final int[] depths;
+        private final int[] replies;
+        private final int[] descendants;
+        private final String[] paths;
+
+        private ThreadShape(int size) {
+            parents = new int[size];
+            depths = new int[size];
+            replies = new int[size];
+            descendants = new int[size];
+            paths = new String[size];
+        }
+
+        private void grow(Random random, int maxDepth, double chainRatio) {
+            parents[0] = -1;
+            for (int i = 1; i < parents.length; i++) {
+                int parent = random.nextDouble() < chainRatio ? i - 1 : random.nextInt(i);
+                while (depths[parent] >= maxDepth) {
+                    parent = parents[parent];
+                }
+                parents[i] = parent;
+                depths[i] = depths[parent] + 1;
+                replies[parent]++;
+            }
+            // Replies always come after their parent, so a backwards pass sees complete subtrees
+            for (int i = parents.length - 1; i > 0; i--) {
+                descendants[parents[i]] += descendants[i] + 1;
+            }
+        }
+
+        private String path(int index, long firstId) {
+            int parent = parents[index];
+            paths[index] = parent < 0 ? "" : paths[parent] + (firstId + parent) + "/";
+            return paths[index];
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.message.tree.backend.service;
+
+import com.message.tree.backend.IntegrationTest;
+import com.message.tree.backend.entity.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+class MessageFeedTest extends IntegrationTest {
+    private static final Pattern EVENT_ID = Pattern.compile("id:(\\S+)");
+
+    @Autowired
+    private MessageService messageService;
+
+    private User user;
+
+    @BeforeEach
+    void createTestUser() {
+        user = createUser();
+    }
+
+    @Test
+    void subtreeSubscribersOnlySeeTheirReplies() throws Exception {
+        Long watched = post("watched root", null);
+        Long other = post("other root", null);
+        MvcResult stream = subscribe(get("/api/messages/stream").param("subtreeId", watched.toString()));
+
+        String elsewhere = "reply elsewhere";
+        post(elsewhere, other);
+        String below = "reply below";
+        post(below, watched);
+
+        // Both go through the same sender in order, the later one arriving means the earlier was dropped
+        String events = await(stream, content -> content.contains(below));
+        assertFalse(events.contains(elsewhere));
+    }
+
+    @Test
+    void reconnectingReplaysWhatWasMissed() throws Exception {
+        MvcResult stream = subscribe(get("/api/messages/stream"));
+        String seen = "seen before leaving";
+        post(seen, null);
+        String lastEventId = lastEventId(await(stream, content -> content.contains(seen)));
+
+        String missed = "missed while away";
+        String missedReply = "missed reply";
+        post(missedReply, post(missed, null));
+
+        String replayed = await(subscribe(get("/api/messages/stream").header("Last-Event-ID", lastEventId)),
+                content -> content.contains(missedReply));
+        assertTrue(replayed.indexOf(missed) < replayed.indexOf(missedReply));
+        assertFalse(replayed.contains(seen));
+    }
+
+    @Test
+    void unknownLastEventIdAsksForAReload() throws Exception {
+        assertResets("garbage");
+        assertResets(Long.toString(Long.MAX_VALUE));
+    }
+
+    @Test
+    void lastEventIdFromAnEarlierRunAsksForAReload() throws Exception {
+        MvcResult stream = subscribe(get("/api/messages/stream"));
+        String seen = "seen before the restart";
+        post(seen, null);
+        String lastEventId = lastEventId(await(stream, content -> content.contains(seen)));
+        post("missed across the restart", null);
+
+        // Same sequence number, but counted by a process that has since restarted
+        String sequence = lastEventId.substring(lastEventId.indexOf('.') + 1);
+        assertResets("earlier." + sequence);
+    }
+
+    private void assertResets(String lastEventId) throws Exception {
+        String events = await(subscribe(get("/api/messages/stream").header("Last-Event-ID", lastEventId)),
+                content -> content.contains("event:reset"));
+        assertFalse(events.contains("event:message"));
+    }
+
+    private MvcResult subscribe(MockHttpServletRequestBuilder request) throws Exception {
+        return mockMvc.perform(request).andExpect(request().asyncStarted()).andReturn();
+    }
+
+    /**
+     * The stream never ends, so wait until what has been written so far satisfies the condition
+     */
+    private static String await(MvcResult stream, Predicate<String> condition) throws Exception {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        String content = stream.getResponse().getContentAsString();
+        while (!condition.test(content)) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting for events, got: " + content);
+            Thread.sleep(20);
+            content = stream.getResponse().getContentAsString();
+        }
+        return content;
+    }
+
+    private static String lastEventId(String events) {
+        Matcher matcher = EVENT_ID.matcher(events);
+        String id = null;
+        while (matcher.find()) {
+            id = matcher.group(1);
+        }
+        return id;
+    }
+
+    private Long post(String content, Long parentId) {
+        return messageService.createMessage(content, user, parentId).getId();
+    }
+}
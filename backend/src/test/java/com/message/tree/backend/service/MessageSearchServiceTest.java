@@ -0,0 +1,69 @@
+package com.message.tree.backend.service;
+
+import com.message.tree.backend.IntegrationTest;
+import com.message.tree.backend.dto.SearchHit;
+import com.message.tree.backend.dto.SearchPage;
+import com.message.tree.backend.entity.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageSearchServiceTest extends IntegrationTest {
+
+    @Autowired
+    private MessageSearchService messageSearchService;
+
+    @Autowired
+    private MessageService messageService;
+
+    private User user;
+
+    @BeforeEach
+    void createTestUser() {
+        user = createUser();
+    }
+
+    @Test
+    void rareWordsWeighMoreThanCommonOnes() {
+        String common = "lantern";
+        String rare = "quasar";
+        for (int i = 0; i < 20; i++) {
+            post(common + " filler");
+        }
+        Long mostlyRare = post(common + " " + rare + " " + rare + " " + rare);
+        Long mostlyCommon = post(common + " " + common + " " + common + " " + rare);
+
+        List<Long> ranked = ids(messageSearchService.search(common + " " + rare, null, 10));
+
+        // Same length, same word counts the other way round: only the idf tells them apart
+        assertEquals(List.of(mostlyRare, mostlyCommon), ranked);
+    }
+
+    @Test
+    void cursorKeepsItsCandidatesWhenNewMessagesMatch() {
+        String rare = "nebula";
+        Long older = post(rare + " one");
+        Long newer = post(rare + " two");
+
+        SearchPage first = messageSearchService.search(rare, null, 1);
+        assertEquals(List.of(newer), ids(first));
+        post(rare + " three");
+
+        SearchPage second = messageSearchService.search(rare, first.getNext(), 1);
+        assertEquals(List.of(older), ids(second));
+        assertNull(second.getNext());
+        assertThrows(IllegalArgumentException.class, () -> messageSearchService.search(rare, "garbage", 1));
+    }
+
+    private Long post(String content) {
+        return messageService.createMessage(content, user, null).getId();
+    }
+
+    private static List<Long> ids(SearchPage page) {
+        return page.getItems().stream().map(SearchHit::getMessage).map(dto -> dto.getId()).toList();
+    }
+}
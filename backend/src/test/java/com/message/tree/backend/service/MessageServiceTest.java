@@ -0,0 +1,124 @@
+package com.message.tree.backend.service;
+
+import com.message.tree.backend.IntegrationTest;
+import com.message.tree.backend.dto.ImportMessageRequest;
+import com.message.tree.backend.dto.MessageDto;
+import com.message.tree.backend.entity.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class MessageServiceTest extends IntegrationTest {
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private MessageImportService messageImportService;
+
+    private User user;
+
+    @BeforeEach
+    void createTestUser() {
+        user = createUser();
+    }
+
+    @Test
+    void ancestorsRunFromTheRootToTheMessage() {
+        Long root = post("ancestor root", null);
+        Long reply = post("ancestor reply", root);
+        Long nested = post("ancestor nested", reply);
+        post("ancestor sibling", reply);
+        Long leaf = post("ancestor leaf", nested);
+
+        assertEquals(List.of(root, reply, nested, leaf), ids(messageService.getAncestors(leaf)));
+        assertEquals(List.of(root, reply), ids(messageService.getAncestors(reply)));
+    }
+
+    @Test
+    void topLevelMessageIsItsOwnPath() {
+        Long root = post("lonely root", null);
+
+        assertEquals(List.of(root), ids(messageService.getAncestors(root)));
+    }
+
+    @Test
+    void unknownMessageHasNoAncestors() throws Exception {
+        assertTrue(messageService.getAncestors(Long.MAX_VALUE).isEmpty());
+        mockMvc.perform(get("/api/messages/{id}/ancestors", Long.MAX_VALUE)).andExpect(status().isNotFound());
+    }
+
+    @Test
+    void subtreeStopsAtSiblingsWhoseIdsShareItsDigits() {
+        Long root = post("prefix root", null);
+        // Fill ids up to ten times the root's, that message's path starts with the root's digits
+        List<ImportMessageRequest> fillers = new ArrayList<>();
+        for (long id = root + 1; id <= root * 10; id++) {
+            fillers.add(importRequest("m" + id, id == root * 10 ? null : "filler"));
+        }
+        fillers.add(importRequest("reply", null));
+        fillers.get(fillers.size() - 1).setParentRef("m" + root * 10);
+        Map<String, Long> imported = messageImportService.importMessages(user, fillers);
+        Long lookalike = imported.get("m" + root * 10);
+        assertEquals(root * 10, lookalike);
+        Long reply = post("prefix reply", root);
+
+        MessageDto subtree = messageService.getSubtree(root, null).orElseThrow();
+        assertEquals(List.of(reply), ids(subtree.getChildren()));
+        assertTrue(subtree.getChildren().get(0).getChildren().isEmpty());
+        assertEquals(List.of(imported.get("reply")),
+                ids(messageService.getSubtree(lookalike, null).orElseThrow().getChildren()));
+    }
+
+    @Test
+    void subtreeStopsAtMaxDepth() {
+        Long root = post("depth root", null);
+        Long reply = post("depth reply", root);
+        Long nested = post("depth nested", reply);
+        Long deepest = post("depth deepest", nested);
+
+        MessageDto alone = messageService.getSubtree(root, 0).orElseThrow();
+        assertEquals(root, alone.getId());
+        assertTrue(alone.getChildren().isEmpty());
+
+        MessageDto cut = messageService.getSubtree(root, 2).orElseThrow();
+        MessageDto atLimit = cut.getChildren().get(0).getChildren().get(0);
+        assertEquals(nested, atLimit.getId());
+        assertTrue(atLimit.getChildren().isEmpty());
+
+        MessageDto whole = messageService.getSubtree(root, null).orElseThrow();
+        assertEquals(deepest, whole.getChildren().get(0).getChildren().get(0).getChildren().get(0).getId());
+        // Depth counts from the requested message, not from the top of its thread
+        assertEquals(List.of(deepest), ids(messageService.getSubtree(reply, 2).orElseThrow().getChildren().get(0).getChildren()));
+    }
+
+    @Test
+    void unknownMessageHasNoSubtree() throws Exception {
+        assertTrue(messageService.getSubtree(Long.MAX_VALUE, null).isEmpty());
+        assertTrue(messageService.getFlatSubtree(Long.MAX_VALUE, 1).isEmpty());
+        mockMvc.perform(get("/api/messages/{id}/subtree", Long.MAX_VALUE)).andExpect(status().isNotFound());
+    }
+
+    private static ImportMessageRequest importRequest(String ref, String content) {
+        ImportMessageRequest request = new ImportMessageRequest();
+        request.setRef(ref);
+        request.setContent(content != null ? content : "message " + ref);
+        return request;
+    }
+
+    private Long post(String content, Long parentId) {
+        return messageService.createMessage(content, user, parentId).getId();
+    }
+
+    private static List<Long> ids(List<MessageDto> messages) {
+        return messages.stream().map(MessageDto::getId).toList();
+    }
+}
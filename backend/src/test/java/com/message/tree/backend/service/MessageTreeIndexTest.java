@@ -0,0 +1,387 @@
+package com.message.tree.backend.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.message.tree.backend.config.JacksonConfig;
+import com.message.tree.backend.dto.FlatTree;
+import com.message.tree.backend.dto.MessageDto;
+import com.message.tree.backend.dto.MessagePage;
+import com.message.tree.backend.entity.Message;
+import com.message.tree.backend.entity.User;
+import com.message.tree.backend.repository.MessageRepository;
+import com.message.tree.backend.repository.MessageRow;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MessageTreeIndexTest {
+    private static final int DEEP = 100_000;
+    private static final int WIDE = 200_000;
+    private static final LocalDateTime START = LocalDateTime.of(2025, 1, 1, 0, 0);
+
+    private final User user = user();
+
+    @Test
+    void deepChainIsBuiltAndSerializedWithoutStackOverflow() throws Exception {
+        List<Message> messages = new ArrayList<>(DEEP);
+        Message parent = null;
+        for (int i = 0; i < DEEP; i++) {
+            parent = message(i + 1, parent, START.plusSeconds(i));
+            parent.setDescendantCount(DEEP - 1 - i);
+            messages.add(parent);
+        }
+        MessageTreeIndex index = index(messages);
+
+        List<MessageDto> tree = index.tree();
+        assertEquals(1, tree.size());
+        assertEquals(DEEP - 1, tree.get(0).getDescendantCount());
+        int depth = 0;
+        for (MessageDto node = tree.get(0); node != null; node = node.getChildren().isEmpty() ? null : node.getChildren().get(0)) {
+            assertEquals(depth + 1, node.getId());
+            depth++;
+        }
+        assertEquals(DEEP, depth);
+
+        String json = objectMapper().writeValueAsString(tree);
+        assertEquals(DEEP, countOccurrences(json, "\"id\":"));
+        assertTrue(json.startsWith("[{\"id\":1,\"parentId\":null,"));
+
+        List<Long> streamed = new ArrayList<>();
+        index.streamTree(batch -> batch.forEach(dto -> streamed.add(dto.getId())));
+        assertEquals(DEEP, streamed.size());
+        assertEquals(DEEP, streamed.get(DEEP - 1));
+    }
+
+    @Test
+    void wideThreadKeepsRepliesInOrder() throws Exception {
+        Message root = message(1, null, START);
+        root.setDescendantCount(WIDE);
+        List<Message> messages = new ArrayList<>(WIDE + 1);
+        messages.add(root);
+        for (int i = 0; i < WIDE; i++) {
+            messages.add(message(i + 2, root, START.plusSeconds(i + 1)));
+        }
+        MessageTreeIndex index = index(messages);
+
+        // A reply with an older timestamp lands in the middle instead of being appended
+        index.add(message(WIDE + 2, root, START.plusSeconds(WIDE / 2).plusNanos(1)));
+
+        List<MessageDto> replies = index.tree().get(0).getChildren();
+        assertEquals(WIDE + 1, replies.size());
+        for (int i = 1; i < replies.size(); i++) {
+            assertFalse(replies.get(i).getCreatedAt().isBefore(replies.get(i - 1).getCreatedAt()));
+        }
+        assertEquals(WIDE + 2, replies.get(WIDE / 2).getId());
+        assertEquals(WIDE + 1, index.tree().get(0).getDescendantCount());
+
+        List<MessageDto> newestFirst = index.children(1L);
+        assertEquals(WIDE + 1, newestFirst.get(0).getId());
+        assertEquals(2, newestFirst.get(WIDE).getId());
+
+        String json = objectMapper().writeValueAsString(index.tree());
+        assertEquals(WIDE + 2, countOccurrences(json, "\"id\":"));
+    }
+
+    @Test
+    void replyChangesVersionsOfItsAncestorsOnly() {
+        Message root = message(1, null, START);
+        Message left = message(2, root, START.plusSeconds(1));
+        Message right = message(3, root, START.plusSeconds(2));
+        MessageTreeIndex index = index(List.of(root, left, right));
+        String tree = index.versionTag();
+        String rootVersion = index.versionTag(1L);
+        String leftVersion = index.versionTag(2L);
+        String rightVersion = index.versionTag(3L);
+
+        index.add(message(4, left, START.plusSeconds(3)));
+
+        assertNotEquals(tree, index.versionTag());
+        assertNotEquals(rootVersion, index.versionTag(1L));
+        assertNotEquals(leftVersion, index.versionTag(2L));
+        assertEquals(rightVersion, index.versionTag(3L));
+        assertNull(index.versionTag(5L));
+
+        // Adding the same message again changes nothing
+        String afterReply = index.versionTag();
+        index.add(message(4, left, START.plusSeconds(3)));
+        assertEquals(afterReply, index.versionTag());
+    }
+
+    @Test
+    void replyEvictsOnlyTheCachedListsOnItsPath() {
+        Message root = message(1, null, START);
+        Message left = message(2, root, START.plusSeconds(1));
+        Message right = message(3, root, START.plusSeconds(2));
+        Message other = message(4, null, START.plusSeconds(3));
+        Message otherReply = message(5, other, START.plusSeconds(4));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MessageTreeIndex index = index(List.of(root, left, right, other, otherReply), registry);
+        List<MessageDto> topLevel = index.topLevel();
+        List<MessageDto> rootReplies = index.children(1L);
+        List<MessageDto> leftReplies = index.children(2L);
+        List<MessageDto> rightReplies = index.children(3L);
+        List<MessageDto> otherReplies = index.children(4L);
+        assertSame(rootReplies, index.children(1L));
+
+        index.add(message(6, left, START.plusSeconds(5)));
+
+        assertEquals(List.of(6L), index.children(2L).stream().map(MessageDto::getId).toList());
+        assertNotSame(leftReplies, index.children(2L));
+        assertEquals(1, index.children(1L).get(1).getReplyCount());
+        assertNotSame(rootReplies, index.children(1L));
+        assertEquals(1, index.topLevel().get(1).getDescendantCount());
+        assertNotSame(topLevel, index.topLevel());
+        assertSame(rightReplies, index.children(3L));
+        assertSame(otherReplies, index.children(4L));
+        // 6 of the 14 lookups above were answered from the cache
+        assertEquals(6.0 / 14, registry.get("cache.hit.ratio").tag("cache", "messageChildren").gauge().value(), 1e-9);
+    }
+
+    @Test
+    void splicedJsonMatchesSerializedTree() throws Exception {
+        Message root = message(1, null, START);
+        root.setContent("quoted \"children\":[ inside");
+        Message reply = message(2, root, START.plusSeconds(1));
+        Message nested = message(3, reply, START.plusSeconds(2));
+        Message other = message(4, null, START.plusSeconds(3));
+        MessageTreeIndex index = index(List.of(root, reply, nested, other));
+        ObjectMapper objectMapper = objectMapper();
+        MessageJsonFragments fragments = new MessageJsonFragments(objectMapper);
+
+        assertEquals(objectMapper.writeValueAsString(index.tree()), splice(index.treeJson(fragments)));
+        List<byte[]> before = index.treeJson(fragments);
+
+        index.add(message(5, nested, START.plusSeconds(4)));
+
+        List<byte[]> after = index.treeJson(fragments);
+        assertEquals(objectMapper.writeValueAsString(index.tree()), splice(after));
+        assertSame(before.get(0), after.get(0));
+        assertNotSame(before.get(1), after.get(1));
+    }
+
+    @Test
+    void boundedTreeCutsDepthAndBreadthWithContinuations() {
+        Message root = message(1, null, START);
+        Message oldest = message(2, root, START.plusSeconds(1));
+        Message middle = message(3, root, START.plusSeconds(2));
+        Message newest = message(4, root, START.plusSeconds(3));
+        Message nested = message(5, newest, START.plusSeconds(4));
+        Message deepest = message(6, nested, START.plusSeconds(5));
+        Message other = message(7, null, START.plusSeconds(6));
+        MessageTreeIndex index = index(List.of(root, oldest, middle, newest, nested, deepest, other));
+
+        MessagePage page = index.boundedTree(null, 20, 2, 2);
+
+        assertNull(page.getNext());
+        assertEquals(List.of(7L, 1L), page.getItems().stream().map(MessageDto::getId).toList());
+        assertEquals(false, page.getItems().get(0).getHasMore());
+        MessageDto thread = page.getItems().get(1);
+        assertEquals(List.of(4L, 3L), thread.getChildren().stream().map(MessageDto::getId).toList());
+        assertEquals(true, thread.getHasMore());
+        assertEquals(List.of(2L), index.childrenPage(1L, thread.getNext(), 10).getItems().stream()
+                .map(MessageDto::getId).toList());
+        MessageDto atLimit = thread.getChildren().get(0).getChildren().get(0);
+        assertEquals(5L, atLimit.getId());
+        assertNull(atLimit.getChildren());
+        assertEquals(true, atLimit.getHasMore());
+        assertNull(atLimit.getNext());
+
+        MessagePage first = index.boundedTree(null, 1, 0, 1);
+        assertEquals(7L, first.getItems().get(0).getId());
+        assertEquals(1L, index.boundedTree(first.getNext(), 1, 0, 1).getItems().get(0).getId());
+    }
+
+    @Test
+    void boundedTreePagesThreadsIndependentlyOfReplyBreadth() {
+        Message root = message(1, null, START);
+        Message reply = message(2, root, START.plusSeconds(1));
+        Message otherReply = message(3, root, START.plusSeconds(2));
+        Message middle = message(4, null, START.plusSeconds(3));
+        Message newest = message(5, null, START.plusSeconds(4));
+        MessageTreeIndex index = index(List.of(root, reply, otherReply, middle, newest));
+
+        MessagePage wide = index.boundedTree(null, 1, 1, 5);
+        assertEquals(List.of(5L), wide.getItems().stream().map(MessageDto::getId).toList());
+        assertNotNull(wide.getNext());
+
+        MessagePage narrow = index.boundedTree(null, 5, 1, 1);
+        assertNull(narrow.getNext());
+        assertEquals(List.of(5L, 4L, 1L), narrow.getItems().stream().map(MessageDto::getId).toList());
+        MessageDto thread = narrow.getItems().get(2);
+        assertEquals(List.of(3L), thread.getChildren().stream().map(MessageDto::getId).toList());
+        assertEquals(true, thread.getHasMore());
+    }
+
+    @Test
+    void replyOlderThanItsParentKeepsItsDepth() {
+        Message root = message(1, null, START);
+        Message reply = message(2, root, START.plusSeconds(2));
+        Message nested = message(3, reply, START.plusSeconds(1));
+        Message deeper = message(4, nested, START.plusSeconds(3));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        // In createdAt order, as the rebuild reads them: nested comes before its parent
+        MessageTreeIndex index = index(List.of(root, nested, reply, deeper), registry);
+
+        MessageDto atLimit = index.boundedTree(null, 10, 2, 10).getItems().get(0)
+                .getChildren().get(0).getChildren().get(0);
+        assertEquals(3L, atLimit.getId());
+        assertNull(atLimit.getChildren());
+        assertEquals(true, atLimit.getHasMore());
+        assertEquals(3, registry.get("messages.tree.depth.max").gauge().value());
+    }
+
+    @Test
+    void batchedChildrenShareTheCachedLists() {
+        Message root = message(1, null, START);
+        Message reply = message(2, root, START.plusSeconds(1));
+        Message nested = message(3, reply, START.plusSeconds(2));
+        MessageTreeIndex index = index(List.of(root, reply, nested));
+        List<MessageDto> rootReplies = index.children(1L);
+
+        Map<Long, List<MessageDto>> batch = index.children(List.of(3L, 1L, 99L, 2L));
+
+        assertEquals(List.of(3L, 1L, 99L, 2L), List.copyOf(batch.keySet()));
+        assertSame(rootReplies, batch.get(1L));
+        assertEquals(List.of(3L), batch.get(2L).stream().map(MessageDto::getId).toList());
+        assertTrue(batch.get(3L).isEmpty());
+        assertTrue(batch.get(99L).isEmpty());
+    }
+
+    @Test
+    void flatTreeKeepsTreeOrderAndSendsEachUserOnce() {
+        User bob = user();
+        bob.setId(2L);
+        bob.setUsername("bob");
+        Message first = message(1, null, START);
+        Message reply = message(2, first, START.plusSeconds(1));
+        reply.setUser(bob);
+        Message nested = message(3, reply, START.plusSeconds(2));
+        Message second = message(4, null, START.plusSeconds(3));
+        Message laterReply = message(5, first, START.plusSeconds(4));
+        MessageTreeIndex index = index(List.of(first, reply, nested, second, laterReply));
+
+        FlatTree flat = index.flatTree();
+
+        List<Long> depthFirst = new ArrayList<>();
+        for (MessageDto root : index.tree()) {
+            collectIds(root, depthFirst);
+        }
+        assertEquals(depthFirst, flat.getId());
+        assertEquals(List.of(4L, 1L, 2L, 3L, 5L), flat.getId());
+        assertEquals(Arrays.asList(null, null, 1L, 2L, 1L), flat.getParentId());
+        assertEquals(2, flat.getUsers().size());
+        assertEquals("bob", flat.getUsers().get(flat.getUser().get(2)).getUsername());
+        assertEquals(List.of(0, 2, 1, 0, 0), flat.getReplyCount());
+    }
+
+    @Test
+    void metricsDescribeTheForest() {
+        Message root = message(1, null, START);
+        Message reply = message(2, root, START.plusSeconds(1));
+        Message nested = message(3, reply, START.plusSeconds(2));
+        Message other = message(4, null, START.plusSeconds(3));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MessageTreeIndex index = index(List.of(root, reply, nested, other), registry);
+
+        assertEquals(4, registry.get("messages.tree.nodes").gauge().value());
+        assertEquals(2, registry.get("messages.tree.roots").gauge().value());
+        assertEquals(2, registry.get("messages.tree.depth.max").gauge().value());
+        assertEquals(1, registry.get("messages.tree.rebuild").tag("phase", "link").timer().count());
+
+        index.add(message(5, nested, START.plusSeconds(4)));
+        index.tree();
+
+        assertEquals(3, registry.get("messages.tree.depth.max").gauge().value());
+        assertEquals(1, registry.get("messages.tree.build").timer().count());
+        assertEquals(5, registry.get("messages.tree.dtos").summary().totalAmount());
+    }
+
+    @Test
+    void depthGaugeHoldsWhenRepliesPredateTheirParents() {
+        Message root = message(1, null, START);
+        Message first = message(2, root, START.plusSeconds(4));
+        Message second = message(3, first, START.plusSeconds(3));
+        Message third = message(4, second, START.plusSeconds(2));
+        Message fourth = message(5, third, START.plusSeconds(1));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        // Imported timestamps: every reply is read before its parent
+        MessageTreeIndex index = index(List.of(root, fourth, third, second, first), registry);
+
+        assertEquals(4, registry.get("messages.tree.depth.max").gauge().value());
+        index.rebuild();
+        assertEquals(4, registry.get("messages.tree.depth.max").gauge().value());
+    }
+
+    private static MessageTreeIndex index(List<Message> messages) {
+        return index(messages, new SimpleMeterRegistry());
+    }
+
+    private static MessageTreeIndex index(List<Message> messages, SimpleMeterRegistry registry) {
+        MessageRepository repository = mock(MessageRepository.class);
+        when(repository.findAllRows()).thenReturn(messages.stream().map(MessageRow::of).toList());
+        MessageTreeIndex index = new MessageTreeIndex(repository, registry, 100_000, Duration.ofMinutes(10));
+        index.rebuild();
+        return index;
+    }
+
+    private static ObjectMapper objectMapper() {
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        JacksonConfig.allowDeepNesting(objectMapper);
+        return objectMapper;
+    }
+
+    private Message message(long id, Message parent, LocalDateTime createdAt) {
+        Message message = new Message();
+        message.setId(id);
+        message.setContent("message " + id);
+        message.setUser(user);
+        message.setParent(parent);
+        message.setDepth(parent != null ? parent.getDepth() + 1 : 0);
+        message.setCreatedAt(createdAt);
+        message.setDescendantCount(0);
+        return message;
+    }
+
+    private static User user() {
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("alice");
+        user.setEmail("alice@example.com");
+        return user;
+    }
+
+    private static void collectIds(MessageDto message, List<Long> ids) {
+        ids.add(message.getId());
+        message.getChildren().forEach(child -> collectIds(child, ids));
+    }
+
+    private static String splice(List<byte[]> threads) {
+        StringBuilder json = new StringBuilder("[");
+        for (byte[] thread : threads) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append(new String(thread, StandardCharsets.UTF_8));
+        }
+        return json.append(']').toString();
+    }
+
+    private static int countOccurrences(String text, String token) {
+        int count = 0;
+        for (int i = text.indexOf(token); i >= 0; i = text.indexOf(token, i + token.length())) {
+            count++;
+        }
+        return count;
+    }
+}
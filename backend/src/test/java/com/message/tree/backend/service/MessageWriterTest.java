@@ -0,0 +1,155 @@
+package com.message.tree.backend.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageWriterTest {
+    private final CountingTransactionManager transactions = new CountingTransactionManager();
+    private final CountDownLatch blocked = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private MessageWriter writer = writer(Duration.ofSeconds(10));
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        release.countDown();
+        writer.stop();
+    }
+
+    @Test
+    void writesQueuedMeanwhileCommitTogether() throws Exception {
+        CompletableFuture<Integer> blocker = block();
+        List<CompletableFuture<Integer>> group = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            int value = i;
+            group.add(writer.submit(() -> value));
+        }
+        release.countDown();
+
+        assertEquals(-1, blocker.get(5, TimeUnit.SECONDS));
+        for (int i = 0; i < group.size(); i++) {
+            assertEquals(i, group.get(i).get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(2, transactions.commits.get());
+    }
+
+    @Test
+    void failedGroupIsRetriedOneByOne() throws Exception {
+        block();
+        CompletableFuture<String> before = writer.submit(() -> "before");
+        CompletableFuture<String> bad = writer.submit(() -> {
+            throw new IllegalArgumentException("bad write");
+        });
+        CompletableFuture<String> after = writer.submit(() -> "after");
+        release.countDown();
+
+        assertEquals("before", before.get(5, TimeUnit.SECONDS));
+        assertEquals("after", after.get(5, TimeUnit.SECONDS));
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> bad.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalArgumentException.class, failure.getCause());
+        // The blocker, then the group and the bad write rolled back, then the two good writes alone
+        assertEquals(3, transactions.commits.get());
+        assertEquals(2, transactions.rollbacks.get());
+    }
+
+    @Test
+    void errorFailsItsCallerAndTheWriterKeepsRunning() {
+        assertThrows(StackOverflowError.class, () -> writer.execute(() -> {
+            throw new StackOverflowError();
+        }));
+
+        assertEquals("still writing", writer.execute(() -> "still writing"));
+    }
+
+    @Test
+    void executeGivesUpAfterTheTimeout() throws InterruptedException {
+        writer.stop();
+        writer = writer(Duration.ofMillis(100));
+        block();
+
+        IllegalStateException timeout = assertThrows(IllegalStateException.class, () -> writer.execute(() -> 1));
+        assertTrue(timeout.getMessage().contains("not committed"));
+    }
+
+    @Test
+    void stopCompletesQueuedWritesAndRejectsNewOnes() throws Exception {
+        CompletableFuture<Integer> blocker = block();
+        CompletableFuture<Integer> queued = writer.submit(() -> 1);
+
+        Thread stopper = new Thread(() -> {
+            try {
+                writer.stop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        stopper.start();
+        release.countDown();
+        stopper.join(5000);
+
+        assertEquals(-1, blocker.get(5, TimeUnit.SECONDS));
+        assertTrue(queued.isDone());
+        assertThrows(IllegalStateException.class, () -> writer.submit(() -> 2));
+    }
+
+    private MessageWriter writer(Duration timeout) {
+        MessageWriter writer = new MessageWriter(new TransactionTemplate(transactions), 256, timeout);
+        writer.start();
+        return writer;
+    }
+
+    /**
+     * Holds the writer thread until released, so the tasks submitted meanwhile end up in one group
+     */
+    private CompletableFuture<Integer> block() throws InterruptedException {
+        CompletableFuture<Integer> blocker = writer.submit(() -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return -1;
+        });
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        return blocker;
+    }
+
+    private static class CountingTransactionManager extends AbstractPlatformTransactionManager {
+        private final AtomicInteger commits = new AtomicInteger();
+        private final AtomicInteger rollbacks = new AtomicInteger();
+
+        @Override
+        protected Object doGetTransaction() {
+            return new Object();
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+            commits.incrementAndGet();
+        }
+
+        @Override
+        protected void doRollback(DefaultTransactionStatus status) {
+            rollbacks.incrementAndGet();
+        }
+    }
+}
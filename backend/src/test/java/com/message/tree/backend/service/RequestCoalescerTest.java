@@ -0,0 +1,115 @@
+package com.message.tree.backend.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestCoalescerTest {
+    private static final int WAITERS = 4;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final RequestCoalescer coalescer = new RequestCoalescer(Set.of("tree"), registry);
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+    private final AtomicInteger computations = new AtomicInteger();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void stop() {
+        release.countDown();
+        callers.shutdownNow();
+    }
+
+    @Test
+    void concurrentCallersShareOneComputation() throws Exception {
+        List<CompletableFuture<Object>> results = callAll(() -> new Object(), "v1");
+        release.countDown();
+
+        Object shared = results.get(0).get(5, TimeUnit.SECONDS);
+        for (CompletableFuture<Object> result : results) {
+            assertSame(shared, result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, computations.get());
+        assertEquals(WAITERS, registry.get("messages.coalesced").counter().count());
+    }
+
+    @Test
+    void otherKeysVersionsAndViewsComputeTheirOwn() throws Exception {
+        CompletableFuture<Object> leader = call(() -> "v1 of 1", 1L, "v1");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // Answered while the first computation is still blocked, so none of them waited for it
+        assertEquals("other key", coalescer.execute("tree", () -> "other key", 2L, "v1"));
+        assertEquals("other version", coalescer.execute("tree", () -> "other version", 1L, "v2"));
+        assertEquals("other view", coalescer.execute("subtree", () -> "other view", 1L, "v1"));
+        assertFalse(leader.isDone());
+
+        release.countDown();
+        assertEquals("v1 of 1", leader.get(5, TimeUnit.SECONDS));
+        assertTrue(registry.find("messages.coalesced").counters().isEmpty());
+    }
+
+    @Test
+    void failureReachesEveryWaiterAndIsNotKept() throws Exception {
+        List<CompletableFuture<Object>> results = callAll(() -> {
+            throw new IllegalStateException("query failed");
+        }, "v1");
+        release.countDown();
+
+        for (CompletableFuture<Object> result : results) {
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, failure.getCause());
+            assertEquals("query failed", failure.getCause().getMessage());
+        }
+        assertEquals(1, computations.get());
+
+        assertEquals("retried", coalescer.execute("tree", () -> "retried", 1L, "v1"));
+    }
+
+    /**
+     * One caller starts a computation held until released, then {@link #WAITERS} more ask for
+     * the same view and key; returns once all of them are waiting for it
+     */
+    private List<CompletableFuture<Object>> callAll(Supplier<Object> computation, String version) throws Exception {
+        List<CompletableFuture<Object>> results = new ArrayList<>();
+        results.add(call(computation, 1L, version));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < WAITERS; i++) {
+            results.add(call(computation, 1L, version));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (registry.find("messages.coalesced").counter() == null
+                || registry.get("messages.coalesced").counter().count() < WAITERS) {
+            assertTrue(System.nanoTime() < deadline, "Callers did not join the running computation");
+            Thread.sleep(10);
+        }
+        return results;
+    }
+
+    private CompletableFuture<Object> call(Supplier<Object> computation, Object... key) {
+        return CompletableFuture.supplyAsync(() -> coalescer.execute("tree", () -> {
+            computations.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return computation.get();
+        }, key), callers);
+    }
+}
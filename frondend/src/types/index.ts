@@ -22,6 +22,8 @@ export interface Message {
   user: User;
   children?: Message[];
   hasChildren?: boolean;
+  replyCount?: number;
+  descendantCount?: number;
 }
 
 export interface CreateMessageRequest {